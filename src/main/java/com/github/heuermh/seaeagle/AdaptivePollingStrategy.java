@@ -0,0 +1,125 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Random;
+
+import software.amazon.awssdk.services.athena.model.QueryExecution;
+import software.amazon.awssdk.services.athena.model.QueryExecutionState;
+import software.amazon.awssdk.services.athena.model.QueryExecutionStatistics;
+
+/**
+ * Adaptive polling strategy.
+ *
+ * <p>
+ * Starts polling at the minimum interval and backs off exponentially with jitter.
+ * While the query is queued, the delay also tracks a fraction of the time it has spent
+ * in the queue, so a query waiting behind others in a busy workgroup is polled less often.
+ * While the query is running, the delay also tracks a fraction of the engine execution
+ * time reported in the query execution statistics, so long running queries are polled
+ * less often, and tightens again once the amount of data scanned stops increasing,
+ * which usually means the query is in its final stage.
+ * </p>
+ */
+final class AdaptivePollingStrategy extends PollingStrategy {
+    private final long minimumInterval;
+    private final long maximumInterval;
+    private final Random random;
+    private long lastDataScannedInBytes = -1L;
+
+    /** Fraction of queue time to wait before polling again. */
+    static final double QUEUE_TIME_FRACTION = 0.25d;
+
+    /** Fraction of engine execution time to wait before polling again. */
+    static final double ENGINE_TIME_FRACTION = 0.25d;
+
+    /** Default minimum polling interval, in milliseconds. */
+    static final long DEFAULT_MINIMUM_INTERVAL = 100L;
+
+    /** Default maximum polling interval, in milliseconds. */
+    static final long DEFAULT_MAXIMUM_INTERVAL = 5000L;
+
+
+    /**
+     * Create a new adaptive polling strategy with default minimum and maximum intervals.
+     */
+    AdaptivePollingStrategy() {
+        this(DEFAULT_MINIMUM_INTERVAL, DEFAULT_MAXIMUM_INTERVAL);
+    }
+
+    /**
+     * Create a new adaptive polling strategy with the specified minimum and maximum intervals.
+     *
+     * @param minimumInterval minimum polling interval in milliseconds, must be greater than zero
+     * @param maximumInterval maximum polling interval in milliseconds, must be greater than or equal to <code>minimumInterval</code>
+     */
+    AdaptivePollingStrategy(final long minimumInterval, final long maximumInterval) {
+        this(minimumInterval, maximumInterval, new Random());
+    }
+
+    /**
+     * Create a new adaptive polling strategy with the specified minimum and maximum intervals and source of randomness.
+     *
+     * @param minimumInterval minimum polling interval in milliseconds, must be greater than zero
+     * @param maximumInterval maximum polling interval in milliseconds, must be greater than or equal to <code>minimumInterval</code>
+     * @param random source of randomness for jitter, must not be null
+     */
+    AdaptivePollingStrategy(final long minimumInterval, final long maximumInterval, final Random random) {
+        checkArgument(minimumInterval > 0L, "minimumInterval must be greater than zero");
+        checkArgument(maximumInterval >= minimumInterval, "maximumInterval must be greater than or equal to minimumInterval");
+        checkArgument(random != null, "random must not be null");
+        this.minimumInterval = minimumInterval;
+        this.maximumInterval = maximumInterval;
+        this.random = random;
+    }
+
+
+    @Override
+    long delay(final QueryExecution queryExecution, final int polls) {
+        // exponential backoff from the minimum interval
+        long delay = minimumInterval << Math.min(Math.max(0, polls - 1), 20);
+
+        QueryExecutionStatistics statistics = queryExecution == null ? null : queryExecution.statistics();
+        QueryExecutionState state = (queryExecution == null || queryExecution.status() == null) ? null : queryExecution.status().state();
+        if (statistics != null && state == QueryExecutionState.QUEUED) {
+            Long queueTime = statistics.queryQueueTimeInMillis();
+            if (queueTime != null && queueTime > 0L) {
+                delay = Math.max(delay, (long) (queueTime * QUEUE_TIME_FRACTION));
+            }
+        }
+        else if (statistics != null && state == QueryExecutionState.RUNNING) {
+            Long engineExecutionTime = statistics.engineExecutionTimeInMillis();
+            if (engineExecutionTime != null && engineExecutionTime > 0L) {
+                delay = Math.max(delay, (long) (engineExecutionTime * ENGINE_TIME_FRACTION));
+            }
+            Long dataScannedInBytes = statistics.dataScannedInBytes();
+            if (dataScannedInBytes != null) {
+                if (dataScannedInBytes > 0L && dataScannedInBytes == lastDataScannedInBytes) {
+                    // scan has finished, completion is likely close
+                    delay = delay / 2L;
+                }
+                lastDataScannedInBytes = dataScannedInBytes;
+            }
+        }
+        delay = Math.min(maximumInterval, Math.max(minimumInterval, delay));
+
+        // equal jitter, between half the delay and the full delay
+        long half = delay / 2L;
+        return Math.max(minimumInterval, half + (long) (random.nextDouble() * (delay - half)));
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import static org.dishevelled.compress.Readers.reader;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import java.nio.file.Path;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+import software.amazon.awssdk.services.athena.model.Datum;
+import software.amazon.awssdk.services.athena.model.Row;
+
+/**
+ * Parser for CSV result files written by Athena.
+ *
+ * <p>
+ * Athena quotes every non-null value with <code>"</code>, doubling any embedded quotes,
+ * and writes null values as empty unquoted fields. Quoted values may contain delimiters
+ * and newlines. Unquoted values, e.g. in local CSV files not written by Athena, are read
+ * as-is, only empty unquoted fields are null values.
+ * </p>
+ *
+ * <p>
+ * Input is read sequentially and split into chunks at record boundaries, found by tracking
+ * quote parity, since a newline outside of quotes always ends a record. Chunks are parsed
+ * concurrently and rows are delivered to the results processor in their original order.
+ * </p>
+ */
+final class AthenaCsvParser {
+    private final int batchSize;
+    private final int threads;
+    private final int chunkSize;
+
+    /** Default batch size, matching the maximum page size of the Athena results API. */
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /** Default chunk size, in characters. */
+    static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    /** Default number of parser threads. */
+    static final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    static final Logger logger = LoggerFactory.getLogger(AthenaCsvParser.class);
+
+
+    /**
+     * Create a new Athena CSV parser with the default batch size, chunk size, and number of threads.
+     */
+    AthenaCsvParser() {
+        this(DEFAULT_BATCH_SIZE, DEFAULT_THREADS, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Create a new Athena CSV parser with the specified batch size, number of threads, and chunk size.
+     *
+     * @param batchSize number of rows per batch, must be greater than zero
+     * @param threads number of parser threads, must be greater than zero
+     * @param chunkSize chunk size in characters, must be greater than zero
+     */
+    AthenaCsvParser(final int batchSize, final int threads, final int chunkSize) {
+        checkArgument(batchSize > 0, "batchSize must be greater than zero");
+        checkArgument(threads > 0, "threads must be greater than zero");
+        checkArgument(chunkSize > 0, "chunkSize must be greater than zero");
+        this.batchSize = batchSize;
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+    }
+
+
+    /**
+     * Parse records from the specified path, notifying the specified results processor
+     * of the specified list of columns and batches of rows.
+     *
+     * <p>
+     * The path is read via dsh-compress <code>Readers</code>, so compressed files,
+     * e.g. <code>.csv.gz</code>, are supported.
+     * </p>
+     *
+     * @param path path to parse, must not be null
+     * @param columns list of columns, must not be null
+     * @param processor results processor, must not be null
+     * @return the number of records parsed
+     * @throws IOException if an I/O error occurs
+     */
+    long parse(final Path path, final List<ColumnInfo> columns, final ResultsProcessor processor) throws IOException {
+        checkNotNull(path);
+        try (BufferedReader reader = reader(path)) {
+            return parse(reader, columns, processor);
+        }
+    }
+
+    /**
+     * Parse records from the specified reader, notifying the specified results processor
+     * of the specified list of columns and batches of rows.
+     *
+     * @param reader reader to parse, must not be null
+     * @param columns list of columns, must not be null
+     * @param processor results processor, must not be null
+     * @return the number of records parsed
+     * @throws IOException if an I/O error occurs
+     */
+    long parse(final Reader reader, final List<ColumnInfo> columns, final ResultsProcessor processor) throws IOException {
+        checkNotNull(reader);
+        checkNotNull(columns);
+        checkNotNull(processor);
+
+        long start = System.nanoTime();
+        long count = 0L;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        Deque<Future<List<Row>>> inFlight = new ArrayDeque<>();
+        try {
+            char[] buffer = new char[chunkSize];
+            int length = 0;
+            boolean inQuotes = false;
+            int scanned = 0;
+            int read;
+            while (!processor.isDone() && (read = reader.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+
+                // find the last record boundary, a newline outside of quotes
+                int boundary = -1;
+                for (int i = scanned; i < length; i++) {
+                    char c = buffer[i];
+                    if (c == '"') {
+                        inQuotes = !inQuotes;
+                    }
+                    else if (c == '\n' && !inQuotes) {
+                        boundary = i;
+                    }
+                }
+                scanned = length;
+
+                if (boundary >= 0) {
+                    char[] chunk = Arrays.copyOf(buffer, boundary + 1);
+                    inFlight.add(executorService.submit(() -> parseChunk(chunk, chunk.length)));
+
+                    // carry the partial record over to the next chunk
+                    int remaining = length - boundary - 1;
+                    System.arraycopy(buffer, boundary + 1, buffer, 0, remaining);
+                    length = remaining;
+                    scanned = remaining;
+
+                    // bound the number of chunks held in memory
+                    while (inFlight.size() > threads * 2) {
+                        count += deliver(inFlight.removeFirst(), columns, processor, count == 0L);
+                    }
+                }
+                else if (length == buffer.length) {
+                    // record longer than the buffer
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+            // the results processor may be done before the end of input, e.g. at a row limit
+            if (!processor.isDone()) {
+                if (inQuotes) {
+                    throw new IOException("unterminated quoted value in final record");
+                }
+                if (length > 0) {
+                    char[] chunk = Arrays.copyOf(buffer, length);
+                    inFlight.add(executorService.submit(() -> parseChunk(chunk, chunk.length)));
+                }
+            }
+            while (!inFlight.isEmpty() && !processor.isDone()) {
+                count += deliver(inFlight.removeFirst(), columns, processor, count == 0L);
+            }
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+
+        long elapsed = Math.max(1L, (System.nanoTime() - start) / 1000000L);
+        logger.info("Parsed {} records in {} ms with {} threads, {} records/s per thread", count, elapsed, threads, (count * 1000L) / elapsed / threads);
+        return count;
+    }
+
+    /**
+     * Wait for the specified parsed chunk and deliver its rows in batches to the specified results processor.
+     */
+    private long deliver(final Future<List<Row>> future, final List<ColumnInfo> columns, final ResultsProcessor processor, final boolean first) throws IOException {
+        List<Row> rows;
+        try {
+            rows = future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted parsing CSV records", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("could not parse CSV records", e.getCause());
+        }
+        for (int i = 0, size = rows.size(); i < size && !processor.isDone(); i += batchSize) {
+            List<Row> batch = rows.subList(i, Math.min(size, i + batchSize));
+            processor.columns(columns);
+            // only the first record of the file is a header row
+            processor.batch(RowBatch.of(columns, batch, first && i == 0));
+        }
+        return rows.size();
+    }
+
+    /**
+     * Parse the specified chunk, which starts at the beginning of a record and ends at the end of a record.
+     *
+     * @param chunk chunk to parse
+     * @param length length of chunk
+     * @return the list of rows parsed from the specified chunk
+     */
+    static List<Row> parseChunk(final char[] chunk, final int length) {
+        List<Row> rows = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        boolean inQuotes = false;
+        boolean pending = false;
+        int previous = -1;
+
+        for (int i = 0; i < length; i++) {
+            char c = chunk[i];
+            if (inQuotes) {
+                if (c == '"') {
+                    inQuotes = false;
+                }
+                else {
+                    value.append(c);
+                }
+            }
+            else if (c == '"') {
+                // doubled quote within a quoted value
+                if (quoted && previous == '"') {
+                    value.append('"');
+                }
+                quoted = true;
+                inQuotes = true;
+                pending = true;
+            }
+            else if (c == ',') {
+                values.add(value(value, quoted));
+                value.setLength(0);
+                quoted = false;
+                pending = true;
+            }
+            else if (c == '\n') {
+                values.add(value(value, quoted));
+                value.setLength(0);
+                quoted = false;
+                pending = false;
+
+                rows.add(toRow(values));
+                values.clear();
+            }
+            else if (c != '\r') {
+                value.append(c);
+                pending = true;
+            }
+            previous = c;
+        }
+        if (pending) {
+            values.add(value(value, quoted));
+            rows.add(toRow(values));
+        }
+        return rows;
+    }
+
+    /**
+     * Return the specified value, or null if it is empty and unquoted.
+     *
+     * @param value value
+     * @param quoted true if the value was quoted
+     * @return the specified value, or null if it is empty and unquoted
+     */
+    private static String value(final StringBuilder value, final boolean quoted) {
+        return (quoted || value.length() > 0) ? value.toString() : null;
+    }
+
+    /**
+     * Convert the specified list of values into a row.
+     *
+     * @param values list of values, null values are converted to empty datums
+     * @return the specified list of values converted into a row
+     */
+    static Row toRow(final List<String> values) {
+        List<Datum> data = new ArrayList<>(values.size());
+        for (String value : values) {
+            data.add(Datum.builder().varCharValue(value).build());
+        }
+        return Row.builder().data(data).build();
+    }
+}
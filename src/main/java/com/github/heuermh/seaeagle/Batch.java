@@ -0,0 +1,304 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParentCommand;
+
+import software.amazon.awssdk.core.exception.SdkException;
+
+import software.amazon.awssdk.services.athena.AthenaClient;
+
+import software.amazon.awssdk.services.athena.model.QueryExecution;
+
+/**
+ * Execute many queries concurrently with bounded parallelism.
+ */
+@Command(name = "batch")
+final class Batch implements Callable<Integer> {
+
+    @ParentCommand
+    private SeaEagle seaEagle;
+
+    @Option(names = { "--queries" }, required = true)
+    private Path queries;
+
+    @Option(names = { "--results-directory" })
+    private Path resultsDirectory = Path.of(".");
+
+    @Option(names = { "--concurrency" })
+    private int concurrency = DEFAULT_CONCURRENCY;
+
+    /** Default number of queries to run concurrently, matching the default workgroup concurrency quota. */
+    static final int DEFAULT_CONCURRENCY = 20;
+
+    static final Logger logger = LoggerFactory.getLogger(Batch.class);
+
+
+    @Override
+    public Integer call() throws Exception {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("--concurrency must be at least 1");
+        }
+        seaEagle.resolveOutputs();
+        seaEagle.checkBatchable();
+        List<Entry> entries = readEntries();
+        logger.info("Running {} queries with concurrency {}", entries.size(), concurrency);
+
+        List<Result> results = new ArrayList<>(entries.size());
+        try (AthenaClient athenaClient = seaEagle.createAthenaClient();
+             QueryExecutionPoller poller = new QueryExecutionPoller(athenaClient, Math.max(1L, seaEagle.pollingInterval()))) {
+            seaEagle.startInFlightQueries(athenaClient);
+
+            // the thread pool bounds both the number of queries in flight and the number of threads parked waiting on them
+            ExecutorService executorService = Executors.newFixedThreadPool(Math.min(concurrency, Math.max(1, entries.size())));
+            try {
+                List<Future<Result>> futures = new ArrayList<>(entries.size());
+                for (Entry entry : entries) {
+                    futures.add(executorService.submit(() -> run(athenaClient, poller, entry)));
+                }
+                for (Future<Result> future : futures) {
+                    try {
+                        results.add(future.get());
+                    }
+                    catch (ExecutionException e) {
+                        throw new IOException(e.getCause());
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                logger.error(seaEagle.inFlightQueries().timedOut() ? "Batch timed out" : "Batch interrupted");
+                seaEagle.inFlightQueries().stopAll();
+                return 1;
+            }
+            finally {
+                executorService.shutdownNow();
+            }
+        }
+        finally {
+            seaEagle.inFlightQueries().clear();
+        }
+
+        writeSummary(results);
+        int exitCode = 0;
+        for (Result result : results) {
+            if ("BUDGET_EXCEEDED".equals(result.state)) {
+                exitCode = SeaEagle.BUDGET_EXCEEDED;
+            }
+            else if (!"SUCCEEDED".equals(result.state) && exitCode == 0) {
+                exitCode = 1;
+            }
+        }
+        return exitCode;
+    }
+
+    /**
+     * Run the query for the specified batch entry.
+     */
+    private Result run(final AthenaClient athenaClient, final QueryExecutionPoller poller, final Entry entry) {
+        long start = System.currentTimeMillis();
+        String queryExecutionId = null;
+        try {
+            String query = seaEagle.readQuery(entry.queryPath);
+            seaEagle.appendHistory(query);
+
+            queryExecutionId = seaEagle.submitAthenaQuery(athenaClient, query);
+            logger.info("Submitted query {}, received query execution ID {}", entry.queryPath, queryExecutionId);
+
+            QueryExecution queryExecution;
+            try {
+                queryExecution = poller.await(queryExecutionId, seaEagle.createBudget());
+            }
+            catch (BudgetExceededException | InterruptedException e) {
+                seaEagle.inFlightQueries().stop(queryExecutionId);
+                seaEagle.recordHistory(query, queryExecutionId, "CANCELLED", null, System.currentTimeMillis() - start);
+                throw e;
+            }
+            catch (CanceledException e) {
+                seaEagle.recordHistory(query, queryExecutionId, "CANCELLED", null, System.currentTimeMillis() - start);
+                throw e;
+            }
+            catch (FailedException e) {
+                seaEagle.recordHistory(query, queryExecutionId, "FAILED", null, System.currentTimeMillis() - start);
+                throw e;
+            }
+            finally {
+                seaEagle.inFlightQueries().remove(queryExecutionId);
+            }
+            seaEagle.recordHistory(query, queryExecutionId, "SUCCEEDED",
+                                   queryExecution.statistics() == null ? null : queryExecution.statistics().dataScannedInBytes(),
+                                   System.currentTimeMillis() - start);
+
+            ResultsProcessor processor = seaEagle.createProcessor(entry.resultsPath);
+            seaEagle.inFlightQueries().register(processor);
+            try (processor) {
+                seaEagle.processResults(athenaClient, queryExecutionId, processor);
+            }
+            finally {
+                seaEagle.inFlightQueries().unregister(processor);
+            }
+            Long dataScannedInBytes = queryExecution.statistics() == null ? null : queryExecution.statistics().dataScannedInBytes();
+            return new Result(entry, queryExecutionId, "SUCCEEDED", System.currentTimeMillis() - start, dataScannedInBytes);
+        }
+        catch (BudgetExceededException e) {
+            logger.error("Query execution for ID {} exceeded budget, stopped", queryExecutionId, e);
+            return new Result(entry, queryExecutionId, "BUDGET_EXCEEDED", System.currentTimeMillis() - start, null);
+        }
+        catch (CanceledException e) {
+            logger.error("Query execution for ID {} canceled", queryExecutionId, e);
+            return new Result(entry, queryExecutionId, "CANCELLED", System.currentTimeMillis() - start, null);
+        }
+        catch (FailedException e) {
+            logger.error("Query execution for ID {} failed", queryExecutionId, e);
+            return new Result(entry, queryExecutionId, "FAILED", System.currentTimeMillis() - start, null);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Query execution for ID {} interrupted", queryExecutionId, e);
+            return new Result(entry, queryExecutionId, "INTERRUPTED", System.currentTimeMillis() - start, null);
+        }
+        catch (SdkException | IOException e) {
+            logger.error("Could not run query {}, caught exception", entry.queryPath, e);
+            return new Result(entry, queryExecutionId, "ERROR", System.currentTimeMillis() - start, null);
+        }
+    }
+
+    /**
+     * Read batch entries from a directory of <code>.sql</code> files or a manifest file.
+     *
+     * <p>
+     * Manifest files contain one query path per line, optionally followed by a tab and a results path.
+     * Relative paths are resolved against the manifest file directory. Blank lines and lines starting
+     * with <code>#</code> are ignored.
+     * </p>
+     */
+    private List<Entry> readEntries() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (Files.isDirectory(queries)) {
+            List<Path> paths = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(queries, "*.sql")) {
+                for (Path path : stream) {
+                    paths.add(path);
+                }
+            }
+            Collections.sort(paths);
+            for (Path path : paths) {
+                entries.add(new Entry(path, defaultResultsPath(path)));
+            }
+        }
+        else {
+            Path directory = queries.toAbsolutePath().getParent();
+            try (BufferedReader reader = Files.newBufferedReader(queries)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    List<String> tokens = Arrays.asList(line.split("\t"));
+                    Path queryPath = directory.resolve(tokens.get(0).trim());
+                    Path resultsPath = tokens.size() > 1 ? directory.resolve(tokens.get(1).trim()) : defaultResultsPath(queryPath);
+                    entries.add(new Entry(queryPath, resultsPath));
+                }
+            }
+        }
+        Files.createDirectories(resultsDirectory);
+        return entries;
+    }
+
+    /**
+     * Return the default results path for the specified query path.
+     */
+    private Path defaultResultsPath(final Path queryPath) {
+        String fileName = queryPath.getFileName().toString();
+        String baseName = fileName.endsWith(".sql") ? fileName.substring(0, fileName.length() - 4) : fileName;
+        return resultsDirectory.resolve(baseName + ("parquet".equals(seaEagle.resultsFormat()) ? ".parquet" : ".txt"));
+    }
+
+    /**
+     * Write a summary of the specified batch results to <code>stdout</code>.
+     */
+    private void writeSummary(final List<Result> results) {
+        PrettyTable table = new PrettyTable(false, false, '+', '-', '|', 2);
+        table.addColumn("query", HorizontalAlignment.LEFT);
+        table.addColumn("query execution ID", HorizontalAlignment.LEFT);
+        table.addColumn("state", HorizontalAlignment.LEFT);
+        table.addColumn("wall time (ms)", HorizontalAlignment.RIGHT);
+        table.addColumn("bytes scanned", HorizontalAlignment.RIGHT);
+        for (Result result : results) {
+            table.addRow(Arrays.asList(result.entry.queryPath.getFileName().toString(),
+                                       result.queryExecutionId == null ? "" : result.queryExecutionId,
+                                       result.state,
+                                       String.valueOf(result.wallTime),
+                                       result.dataScannedInBytes == null ? "" : String.valueOf(result.dataScannedInBytes)));
+        }
+        System.out.println(table.toString());
+    }
+
+    /**
+     * Batch entry.
+     */
+    private static final class Entry {
+        private final Path queryPath;
+        private final Path resultsPath;
+
+        Entry(final Path queryPath, final Path resultsPath) {
+            this.queryPath = queryPath;
+            this.resultsPath = resultsPath;
+        }
+    }
+
+    /**
+     * Batch result.
+     */
+    private static final class Result {
+        private final Entry entry;
+        private final String queryExecutionId;
+        private final String state;
+        private final long wallTime;
+        private final Long dataScannedInBytes;
+
+        Result(final Entry entry, final String queryExecutionId, final String state, final long wallTime, final Long dataScannedInBytes) {
+            this.entry = entry;
+            this.queryExecutionId = queryExecutionId;
+            this.state = state;
+            this.wallTime = wallTime;
+            this.dataScannedInBytes = dataScannedInBytes;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+/**
+ * Budget exceeded exception.
+ */
+final class BudgetExceededException extends Exception {
+
+    /**
+     * Create a new budget exceeded exception with the specified message.
+     *
+     * @param message message
+     */
+    BudgetExceededException(final String message) {
+        super(message);
+    }
+}
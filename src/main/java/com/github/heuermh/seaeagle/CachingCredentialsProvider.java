@@ -0,0 +1,298 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import java.net.URLEncoder;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import java.nio.file.attribute.PosixFilePermissions;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import java.time.format.DateTimeParseException;
+
+import java.util.Properties;
+import java.util.UUID;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+
+import software.amazon.awssdk.core.exception.SdkException;
+
+/**
+ * Credentials provider that caches temporary credentials resolved by another credentials provider.
+ *
+ * <p>
+ * Credentials are reused until shortly before they expire.  Within the prefetch window before expiration,
+ * the current credentials are returned and fresh credentials are resolved asynchronously, so that long-running
+ * modes never wait on credential resolution.  If a cache directory is specified, temporary credentials are also
+ * persisted, with owner-only permissions, in a file per profile and reused across invocations, unless the
+ * shared AWS config or credentials files have since been modified.  Credentials without an expiration time
+ * are never persisted.
+ * </p>
+ */
+final class CachingCredentialsProvider implements AwsCredentialsProvider {
+    private final AwsCredentialsProvider delegate;
+    private final String profile;
+    private final Path path;
+    private final Duration staleTime;
+    private final Duration prefetchTime;
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "se-credentials-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    private volatile AwsCredentials credentials;
+
+    /** Default stale time, credentials are resolved synchronously this close to expiration. */
+    static final Duration DEFAULT_STALE_TIME = Duration.ofMinutes(1L);
+
+    /** Default prefetch time, credentials are resolved asynchronously this close to expiration. */
+    static final Duration DEFAULT_PREFETCH_TIME = Duration.ofMinutes(5L);
+
+    static final Logger logger = LoggerFactory.getLogger(CachingCredentialsProvider.class);
+
+
+    /**
+     * Create a new caching credentials provider with default stale and prefetch times.
+     *
+     * @param delegate credentials provider to delegate to, must not be null
+     * @param profile profile name, must not be null
+     * @param directory credential cache directory, if any
+     */
+    CachingCredentialsProvider(final AwsCredentialsProvider delegate, final String profile, final Path directory) {
+        this(delegate, profile, directory, DEFAULT_STALE_TIME, DEFAULT_PREFETCH_TIME);
+    }
+
+    /**
+     * Create a new caching credentials provider.
+     *
+     * @param delegate credentials provider to delegate to, must not be null
+     * @param profile profile name, must not be null
+     * @param directory credential cache directory, if any
+     * @param staleTime stale time, must not be null
+     * @param prefetchTime prefetch time, must not be null and must be greater than or equal to stale time
+     */
+    CachingCredentialsProvider(final AwsCredentialsProvider delegate,
+                               final String profile,
+                               final Path directory,
+                               final Duration staleTime,
+                               final Duration prefetchTime) {
+
+        checkNotNull(delegate);
+        checkNotNull(profile);
+        checkNotNull(staleTime);
+        checkNotNull(prefetchTime);
+        checkArgument(prefetchTime.compareTo(staleTime) >= 0, "prefetchTime must be greater than or equal to staleTime");
+        this.delegate = delegate;
+        this.profile = profile;
+        this.path = directory == null ? null : directory.resolve(URLEncoder.encode(profile, StandardCharsets.UTF_8) + ".properties");
+        this.staleTime = staleTime;
+        this.prefetchTime = prefetchTime;
+    }
+
+
+    @Override
+    public AwsCredentials resolveCredentials() {
+        AwsCredentials current = credentials;
+        Instant now = Instant.now();
+        if (current != null && !isStale(current, now)) {
+            if (isPrefetch(current, now)) {
+                refreshAsync();
+            }
+            return current;
+        }
+        synchronized (this) {
+            current = credentials;
+            if (current == null) {
+                current = read();
+                if (current != null) {
+                    credentials = current;
+                    if (isPrefetch(current, now)) {
+                        refreshAsync();
+                    }
+                    return current;
+                }
+            }
+            if (current == null || isStale(current, now)) {
+                current = refresh();
+                credentials = current;
+            }
+            return current;
+        }
+    }
+
+    private boolean isStale(final AwsCredentials credentials, final Instant now) {
+        return credentials.expirationTime().map(expiration -> now.plus(staleTime).isAfter(expiration)).orElse(false);
+    }
+
+    private boolean isPrefetch(final AwsCredentials credentials, final Instant now) {
+        return credentials.expirationTime().map(expiration -> now.plus(prefetchTime).isAfter(expiration)).orElse(false);
+    }
+
+    private AwsCredentials refresh() {
+        long start = System.currentTimeMillis();
+        AwsCredentials resolved = delegate.resolveCredentials();
+        logger.info("Resolved credentials for profile {} in {} ms{}", profile, System.currentTimeMillis() - start,
+                    resolved.expirationTime().map(expiration -> ", expiring at " + expiration).orElse(""));
+        write(resolved);
+        return resolved;
+    }
+
+    private void refreshAsync() {
+        if (refreshing.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                    try {
+                        credentials = refresh();
+                    }
+                    catch (SdkException e) {
+                        logger.warn("Could not refresh credentials for profile {}, caught exception", profile, e);
+                    }
+                    finally {
+                        refreshing.set(false);
+                    }
+                });
+        }
+    }
+
+    private AwsCredentials read() {
+        if (path == null) {
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            long modified = Files.getLastModifiedTime(path).toMillis();
+            for (Path sharedFile : sharedFiles()) {
+                if (Files.exists(sharedFile) && Files.getLastModifiedTime(sharedFile).toMillis() > modified) {
+                    logger.info("Shared file {} modified since credentials for profile {} were cached", sharedFile, profile);
+                    return null;
+                }
+            }
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            AwsCredentials cached = AwsSessionCredentials.builder()
+                .accessKeyId(properties.getProperty("accessKeyId"))
+                .secretAccessKey(properties.getProperty("secretAccessKey"))
+                .sessionToken(properties.getProperty("sessionToken"))
+                .expirationTime(Instant.parse(properties.getProperty("expirationTime")))
+                .build();
+
+            if (isStale(cached, Instant.now())) {
+                logger.info("Cached credentials for profile {} expired", profile);
+                return null;
+            }
+            logger.info("Resolved credentials for profile {} from credential cache in {} ms, expiring at {}",
+                        profile, System.currentTimeMillis() - start, properties.getProperty("expirationTime"));
+            return cached;
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        catch (IOException | NullPointerException | DateTimeParseException e) {
+            logger.warn("Could not read cached credentials for profile {}, caught exception", profile, e);
+            return null;
+        }
+    }
+
+    private void write(final AwsCredentials credentials) {
+        if (path == null || !(credentials instanceof AwsSessionCredentials) || credentials.expirationTime().isEmpty()) {
+            return;
+        }
+        AwsSessionCredentials sessionCredentials = (AwsSessionCredentials) credentials;
+        Properties properties = new Properties();
+        properties.setProperty("accessKeyId", sessionCredentials.accessKeyId());
+        properties.setProperty("secretAccessKey", sessionCredentials.secretAccessKey());
+        properties.setProperty("sessionToken", sessionCredentials.sessionToken());
+        properties.setProperty("expirationTime", sessionCredentials.expirationTime().get().toString());
+
+        Path temp = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID());
+        try {
+            if (!Files.isDirectory(path.getParent())) {
+                Files.createDirectories(path.getParent(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            }
+            Files.createFile(temp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            logger.warn("Could not cache credentials for profile {}, caught exception", profile, e);
+            try {
+                Files.deleteIfExists(temp);
+            }
+            catch (IOException ignored) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Return the name of the AWS profile in use, from the <code>aws.profile</code> system property or
+     * the <code>AWS_PROFILE</code> environment variable, or <code>default</code> if neither are set.
+     *
+     * @return the name of the AWS profile in use
+     */
+    static String profileName() {
+        String profile = System.getProperty("aws.profile");
+        if (profile == null) {
+            profile = System.getenv("AWS_PROFILE");
+        }
+        return profile == null || profile.isEmpty() ? "default" : profile;
+    }
+
+    private static Path[] sharedFiles() {
+        Path awsDirectory = Path.of(System.getProperty("user.home"), ".aws");
+        String config = System.getenv("AWS_CONFIG_FILE");
+        String credentials = System.getenv("AWS_SHARED_CREDENTIALS_FILE");
+        return new Path[] {
+            config == null ? awsDirectory.resolve("config") : Path.of(config),
+            credentials == null ? awsDirectory.resolve("credentials") : Path.of(credentials)
+        };
+    }
+}
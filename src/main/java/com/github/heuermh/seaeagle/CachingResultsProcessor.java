@@ -0,0 +1,160 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import static org.dishevelled.compress.Writers.writer;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+
+/**
+ * Caching results processor, writes results to a cache entry while passing them on to another results processor.
+ *
+ * <p>
+ * Failures writing the cache entry are logged and otherwise ignored, the cache entry
+ * is only committed if results are complete.
+ * </p>
+ */
+final class CachingResultsProcessor extends ResultsProcessor {
+    private final ResultCache cache;
+    private final QueryFingerprint fingerprint;
+    private final ResultsProcessor delegate;
+    private Path temp;
+    private PrintWriter writer;
+    private boolean failed = false;
+    static final Logger logger = LoggerFactory.getLogger(CachingResultsProcessor.class);
+
+
+    /**
+     * Create a new caching results processor.
+     *
+     * @param cache result cache, must not be null
+     * @param fingerprint query fingerprint, must not be null
+     * @param delegate results processor to delegate to, must not be null
+     */
+    CachingResultsProcessor(final ResultCache cache, final QueryFingerprint fingerprint, final ResultsProcessor delegate) {
+        checkNotNull(cache);
+        checkNotNull(fingerprint);
+        checkNotNull(delegate);
+        this.cache = cache;
+        this.fingerprint = fingerprint;
+        this.delegate = delegate;
+    }
+
+
+    @Override
+    void columns(final List<ColumnInfo> columns) throws IOException {
+        if (writer == null && !failed) {
+            try {
+                temp = cache.createTemp(fingerprint);
+                writer = writer(temp);
+                ResultCache.writeColumns(columns, writer);
+            }
+            catch (IOException e) {
+                fail(e);
+            }
+        }
+        delegate.columns(columns);
+    }
+
+    @Override
+    Object prepare(final RowBatch batch) throws IOException {
+        return delegate.prepare(batch);
+    }
+
+    @Override
+    void batch(final RowBatch batch) throws IOException {
+        batch(batch, prepare(batch));
+    }
+
+    @Override
+    void batch(final RowBatch batch, final Object prepared) throws IOException {
+        if (writer != null && !failed) {
+            // rows as returned by Athena, so replayed results start with the same header row
+            ResultCache.writeBatch(batch, writer);
+        }
+        delegate.batch(batch, prepared);
+    }
+
+    @Override
+    boolean isDone() {
+        return delegate.isDone();
+    }
+
+    @Override
+    void complete() throws IOException {
+        delegate.complete();
+
+        // results stopped early, e.g. at a row limit or when output was closed, are incomplete
+        if (writer != null && !failed && delegate.isDone()) {
+            logger.info("Results for query fingerprint {} stopped early, results will not be cached", fingerprint);
+            failed = true;
+            return;
+        }
+        if (writer != null && !failed) {
+            writer.close();
+            if (writer.checkError()) {
+                fail(new IOException("could not write cache entry " + temp));
+                return;
+            }
+            writer = null;
+            try {
+                cache.commit(fingerprint, temp);
+                temp = null;
+            }
+            catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            delegate.close();
+        }
+        finally {
+            if (writer != null) {
+                writer.close();
+            }
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                }
+                catch (IOException e) {
+                    logger.warn("Could not delete incomplete cache entry {}", temp, e);
+                }
+            }
+        }
+    }
+
+    private void fail(final IOException e) {
+        logger.warn("Could not write cache entry for query fingerprint {}, results will not be cached", fingerprint, e);
+        failed = true;
+    }
+}
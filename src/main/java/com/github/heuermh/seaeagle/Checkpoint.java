@@ -0,0 +1,162 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import java.util.Properties;
+
+/**
+ * Checkpoint of results processed so far, written to a sidecar file alongside the results path.
+ */
+final class Checkpoint {
+    private final String queryExecutionId;
+    private final String fingerprint;
+    private final String nextToken;
+    private final long position;
+    private final boolean complete;
+
+    static final String SUFFIX = ".checkpoint";
+
+
+    /**
+     * Create a new checkpoint.
+     *
+     * @param queryExecutionId query execution ID, must not be null
+     * @param fingerprint query fingerprint, if any
+     * @param nextToken token of the next page of results to process, if any
+     * @param position bytes written to the results path, or parts written for Parquet format, must be at least zero
+     * @param complete true if all pages of results have been processed
+     */
+    Checkpoint(final String queryExecutionId, final String fingerprint, final String nextToken, final long position, final boolean complete) {
+        checkNotNull(queryExecutionId);
+        checkArgument(position >= 0L, "position must be at least zero");
+        this.queryExecutionId = queryExecutionId;
+        this.fingerprint = fingerprint;
+        this.nextToken = nextToken;
+        this.position = position;
+        this.complete = complete;
+    }
+
+
+    String queryExecutionId() {
+        return queryExecutionId;
+    }
+
+    String fingerprint() {
+        return fingerprint;
+    }
+
+    String nextToken() {
+        return nextToken;
+    }
+
+    long position() {
+        return position;
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Write this checkpoint to the specified path, replacing any previous checkpoint atomically.
+     *
+     * @param path path to write to, must not be null
+     * @throws IOException if an I/O error occurs
+     */
+    void write(final Path path) throws IOException {
+        checkNotNull(path);
+        Properties properties = new Properties();
+        properties.setProperty("queryExecutionId", queryExecutionId);
+        if (fingerprint != null) {
+            properties.setProperty("fingerprint", fingerprint);
+        }
+        if (nextToken != null) {
+            properties.setProperty("nextToken", nextToken);
+        }
+        properties.setProperty("position", String.valueOf(position));
+        properties.setProperty("complete", String.valueOf(complete));
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(writer, "se checkpoint");
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Return the checkpoint path for the specified results path.
+     *
+     * @param resultsPath results path, must not be null
+     * @return the checkpoint path for the specified results path
+     */
+    static Path path(final Path resultsPath) {
+        checkNotNull(resultsPath);
+        return resultsPath.resolveSibling(resultsPath.getFileName() + SUFFIX);
+    }
+
+    /**
+     * Read a checkpoint from the specified path, if any.
+     *
+     * @param path path to read from, must not be null
+     * @return a checkpoint read from the specified path, or <code>null</code> if none exists
+     * @throws IOException if an I/O error occurs
+     */
+    static Checkpoint read(final Path path) throws IOException {
+        checkNotNull(path);
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        String queryExecutionId = properties.getProperty("queryExecutionId");
+        String position = properties.getProperty("position");
+        if (queryExecutionId == null || position == null) {
+            throw new IOException("invalid checkpoint " + path);
+        }
+        try {
+            return new Checkpoint(queryExecutionId,
+                                  properties.getProperty("fingerprint"),
+                                  properties.getProperty("nextToken"),
+                                  Long.parseLong(position),
+                                  Boolean.parseBoolean(properties.getProperty("complete")));
+        }
+        catch (IllegalArgumentException e) {
+            throw new IOException("invalid checkpoint " + path, e);
+        }
+    }
+}
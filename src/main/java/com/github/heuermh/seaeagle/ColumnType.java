@@ -0,0 +1,176 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Locale;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+
+/**
+ * Column type, parsed once from an Athena <code>ColumnInfo</code>.
+ */
+final class ColumnType {
+    private final String name;
+    private final Integer precision;
+    private final Integer scale;
+    private final Kind kind;
+
+    /** Kind of values, as stored in a row batch. */
+    enum Kind {
+        /** Values stored as <code>long</code>s. */
+        LONG,
+
+        /** Values stored as <code>double</code>s. */
+        DOUBLE,
+
+        /** Values stored as <code>boolean</code>s. */
+        BOOLEAN,
+
+        /** Values stored as strings. */
+        STRING
+    }
+
+
+    /**
+     * Create a new column type.
+     *
+     * @param name base type name, in lower case, e.g. <code>decimal</code>, must not be null
+     * @param precision precision, if any
+     * @param scale scale, if any
+     */
+    ColumnType(final String name, final Integer precision, final Integer scale) {
+        checkNotNull(name);
+        this.name = name;
+        this.precision = precision;
+        this.scale = scale;
+        this.kind = kind(name);
+    }
+
+
+    /**
+     * Return the base type name, in lower case, without any parameters.
+     *
+     * @return the base type name
+     */
+    String name() {
+        return name;
+    }
+
+    /**
+     * Return the precision, if any.
+     *
+     * @return the precision, or <code>null</code> if none
+     */
+    Integer precision() {
+        return precision;
+    }
+
+    /**
+     * Return the scale, if any.
+     *
+     * @return the scale, or <code>null</code> if none
+     */
+    Integer scale() {
+        return scale;
+    }
+
+    /**
+     * Return the kind of values of this column type.
+     *
+     * @return the kind of values of this column type
+     */
+    Kind kind() {
+        return kind;
+    }
+
+    /**
+     * Parse a column type from the specified column info.
+     *
+     * <p>
+     * Precision and scale are taken from the type name if parameterized, e.g. <code>decimal(10,2)</code>,
+     * otherwise from the precision and scale of the column info, if greater than zero.
+     * </p>
+     *
+     * @param columnInfo column info, must not be null
+     * @return a column type parsed from the specified column info
+     */
+    static ColumnType of(final ColumnInfo columnInfo) {
+        checkNotNull(columnInfo);
+        String type = columnInfo.type() == null ? "varchar" : columnInfo.type().trim().toLowerCase(Locale.ROOT);
+        Integer precision = positive(columnInfo.precision());
+        Integer scale = positive(columnInfo.scale());
+
+        int end = type.length();
+        for (int i = 0; i < type.length(); i++) {
+            char c = type.charAt(i);
+            if (c == '(' || c == '<' || c == ' ') {
+                end = i;
+                break;
+            }
+        }
+        String name = type.substring(0, end);
+        if (end < type.length() && type.charAt(end) == '(' && type.endsWith(")") && !isNested(name)) {
+            String[] parameters = type.substring(end + 1, type.length() - 1).split(",");
+            try {
+                precision = Integer.valueOf(parameters[0].trim());
+                if (parameters.length > 1) {
+                    scale = Integer.valueOf(parameters[1].trim());
+                }
+            }
+            catch (NumberFormatException e) {
+                // not numeric parameters, e.g. timestamp(3) with time zone
+            }
+        }
+        return new ColumnType(name, precision, scale);
+    }
+
+    private static Integer positive(final Integer value) {
+        return value == null || value <= 0 ? null : value;
+    }
+
+    private static boolean isNested(final String name) {
+        return "array".equals(name) || "map".equals(name) || "struct".equals(name) || "row".equals(name);
+    }
+
+    private static Kind kind(final String name) {
+        switch (name) {
+            case "tinyint":
+            case "smallint":
+            case "integer":
+            case "int":
+            case "bigint":
+                return Kind.LONG;
+            case "real":
+            case "float":
+            case "double":
+                return Kind.DOUBLE;
+            case "boolean":
+                return Kind.BOOLEAN;
+            default:
+                return Kind.STRING;
+        }
+    }
+
+    @Override
+    public String toString() {
+        if (precision == null) {
+            return name;
+        }
+        return name + "(" + precision + (scale == null ? "" : "," + scale) + ")";
+    }
+}
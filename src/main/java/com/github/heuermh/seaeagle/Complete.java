@@ -0,0 +1,166 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+import picocli.CommandLine.ParentCommand;
+
+/**
+ * Complete catalog, database, table, and column names from the local metadata cache.
+ *
+ * <p>
+ * Names are always answered from the cache.  If the cached metadata is missing or stale, a
+ * <code>se metadata</code> process is started in the background to refresh it for the next completion.
+ * </p>
+ */
+@Command(name = "complete")
+final class Complete implements Callable<Integer> {
+
+    @ParentCommand
+    private SeaEagle seaEagle;
+
+    @Parameters(index = "0", paramLabel = "<kind>", descriptionKey = "complete-kind")
+    private Kind kind;
+
+    @Parameters(index = "1", arity = "0..1", paramLabel = "<prefix>", descriptionKey = "complete-prefix")
+    private String prefix;
+
+    @Option(names = { "-t", "--table" })
+    private String table;
+
+    @Option(names = { "--no-refresh" })
+    private boolean noRefresh;
+
+    /** Kind of name to complete. */
+    enum Kind {
+        catalogs, databases, tables, columns
+    }
+
+    static final Logger logger = LoggerFactory.getLogger(Complete.class);
+
+
+    @Override
+    public Integer call() throws Exception {
+        MetadataCache metadataCache = seaEagle.createMetadataCache();
+        String catalog = seaEagle.catalog() == null ? MetadataCache.DEFAULT_CATALOG : seaEagle.catalog();
+
+        List<String> names;
+        switch (kind) {
+        case catalogs:
+            names = metadataCache.catalogs();
+            catalog = null;
+            break;
+        case databases:
+            names = metadataCache.databases(catalog);
+            break;
+        case tables:
+            names = metadataCache.tables(catalog, seaEagle.database());
+            break;
+        case columns:
+            names = metadataCache.columns(catalog, seaEagle.database(), table);
+            break;
+        default:
+            throw new IllegalStateException("unexpected kind " + kind);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            if (prefix == null || name.startsWith(prefix)) {
+                sb.append(name);
+                sb.append(System.lineSeparator());
+            }
+        }
+        System.out.print(sb);
+        System.out.flush();
+
+        if (!noRefresh && metadataCache.isStale(catalog) && !metadataCache.isRefreshing(catalog)) {
+            refreshInBackground(catalog);
+        }
+        return 0;
+    }
+
+    /**
+     * Start a detached <code>se metadata</code> process for the specified catalog, or for the list of
+     * catalogs if catalog is null, with the same Java command line and environment, e.g. AWS profile
+     * and region, as this process.
+     *
+     * @param catalog catalog, if any
+     */
+    private void refreshInBackground(final String catalog) {
+        ProcessHandle.Info info = ProcessHandle.current().info();
+        Optional<String> command = info.command();
+        Optional<String[]> arguments = info.arguments();
+        if (command.isEmpty() || arguments.isEmpty()) {
+            logger.info("Could not determine command line, skipping background metadata refresh");
+            return;
+        }
+        List<String> args = Arrays.asList(arguments.get());
+        int main = args.indexOf(SeaEagle.class.getName());
+        if (main < 0) {
+            logger.info("Could not find main class {} in command line, skipping background metadata refresh", SeaEagle.class.getName());
+            return;
+        }
+        List<String> commandLine = new ArrayList<>();
+        commandLine.add(command.get());
+        commandLine.addAll(args.subList(0, main + 1));
+        commandLine.add("metadata");
+        commandLine.add("--state-directory");
+        commandLine.add(seaEagle.stateDirectory().toString());
+        if (seaEagle.workgroup() != null) {
+            commandLine.add("--workgroup");
+            commandLine.add(seaEagle.workgroup());
+        }
+        // refresh against the same endpoint, within the same limits, as this process
+        if (seaEagle.athenaEndpoint() != null) {
+            commandLine.add("--athena-endpoint");
+            commandLine.add(seaEagle.athenaEndpoint().toString());
+        }
+        commandLine.add("--api-rate-limit");
+        commandLine.add(String.valueOf(seaEagle.apiRateLimit()));
+        commandLine.add("--max-retries");
+        commandLine.add(String.valueOf(seaEagle.maxRetries()));
+        commandLine.add(seaEagle.credentialCache() ? "--credential-cache" : "--no-credential-cache");
+        if (catalog != null) {
+            commandLine.add("--catalog");
+            commandLine.add(catalog);
+        }
+        try {
+            Process process = new ProcessBuilder(commandLine)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+            process.getOutputStream().close();
+            logger.info("Started background metadata refresh for {}", catalog == null ? "catalogs" : "catalog " + catalog);
+        }
+        catch (IOException e) {
+            logger.warn("Could not start background metadata refresh, caught exception", e);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+
+/**
+ * Fan-out results processor, passes results on to several results processors, each on its own thread.
+ *
+ * <p>
+ * Each results processor has a bounded queue of pending batches, so a slow output only holds back
+ * the others once its queue is full.  A results processor that fails is dropped without affecting the
+ * others, which continue to completion, and the failure is then reported by {@link #complete()}.
+ * </p>
+ *
+ * <p>
+ * Each results processor is used only from its own output thread, which closes it on exit, so
+ * {@link #close()} never closes a results processor while its output thread may still be writing to it.
+ * </p>
+ */
+final class FanOutResultsProcessor extends ResultsProcessor {
+    private final List<Output> outputs;
+    private volatile boolean closed = false;
+    static final Logger logger = LoggerFactory.getLogger(FanOutResultsProcessor.class);
+
+    /** Default number of batches queued for each results processor. */
+    static final int DEFAULT_QUEUE_DEPTH = 16;
+
+    /** Interval in milliseconds between checks that an output thread is still running while waiting on it. */
+    private static final long WAIT_INTERVAL = 100L;
+
+
+    /**
+     * Create a new fan-out results processor with the default queue depth.
+     *
+     * @param delegates results processors to delegate to, must not be null or empty
+     */
+    FanOutResultsProcessor(final List<ResultsProcessor> delegates) {
+        this(delegates, DEFAULT_QUEUE_DEPTH);
+    }
+
+    /**
+     * Create a new fan-out results processor.
+     *
+     * @param delegates results processors to delegate to, must not be null or empty
+     * @param queueDepth number of batches queued for each results processor, must be at least one
+     */
+    FanOutResultsProcessor(final List<ResultsProcessor> delegates, final int queueDepth) {
+        checkNotNull(delegates);
+        checkArgument(!delegates.isEmpty(), "delegates must not be empty");
+        checkArgument(queueDepth > 0, "queueDepth must be at least one");
+        outputs = new ArrayList<>(delegates.size());
+        for (ResultsProcessor delegate : delegates) {
+            checkNotNull(delegate);
+            outputs.add(new Output(outputs.size(), delegate, queueDepth));
+        }
+        for (Output output : outputs) {
+            output.thread.start();
+        }
+    }
+
+
+    @Override
+    void columns(final List<ColumnInfo> columns) throws IOException {
+        for (Output output : outputs) {
+            output.send(delegate -> delegate.columns(columns));
+        }
+    }
+
+    @Override
+    Object prepare(final RowBatch batch) throws IOException {
+        Object[] prepared = new Object[outputs.size()];
+        for (int i = 0; i < prepared.length; i++) {
+            prepared[i] = outputs.get(i).delegate.prepare(batch);
+        }
+        return prepared;
+    }
+
+    @Override
+    void batch(final RowBatch batch) throws IOException {
+        // prepare on each output thread rather than this one
+        for (Output output : outputs) {
+            output.send(delegate -> delegate.batch(batch));
+        }
+    }
+
+    @Override
+    void batch(final RowBatch batch, final Object prepared) throws IOException {
+        if (!(prepared instanceof Object[]) || ((Object[]) prepared).length != outputs.size()) {
+            batch(batch);
+            return;
+        }
+        Object[] preparedBatches = (Object[]) prepared;
+        for (int i = 0; i < preparedBatches.length; i++) {
+            Object preparedBatch = preparedBatches[i];
+            outputs.get(i).send(delegate -> delegate.batch(batch, preparedBatch));
+        }
+    }
+
+    @Override
+    boolean isDone() {
+        for (Output output : outputs) {
+            if (!output.done && output.failure == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    void flush() throws IOException {
+        List<CountDownLatch> flushed = new ArrayList<>(outputs.size());
+        for (Output output : outputs) {
+            CountDownLatch latch = new CountDownLatch(1);
+            flushed.add(output.send(delegate -> {
+                        delegate.flush();
+                        latch.countDown();
+                    }, true) ? latch : null);
+        }
+        for (int i = 0; i < flushed.size(); i++) {
+            if (flushed.get(i) != null) {
+                outputs.get(i).await(flushed.get(i));
+            }
+        }
+    }
+
+    @Override
+    void complete() throws IOException {
+        for (Output output : outputs) {
+            output.send(delegate -> delegate.complete(), true);
+            output.stop();
+        }
+        IOException failure = null;
+        for (Output output : outputs) {
+            output.join();
+            if (output.failure != null) {
+                if (failure == null) {
+                    failure = new IOException("could not write results to output " + output.name(), output.failure);
+                }
+                else {
+                    failure.addSuppressed(output.failure);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Output output : outputs) {
+            output.abort();
+        }
+        // each output thread closes its own results processor on exit
+        boolean interrupted = false;
+        for (Output output : outputs) {
+            interrupted |= output.awaitExit();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Task run against a results processor on its output thread.
+     */
+    private interface Task {
+
+        /**
+         * Run this task against the specified results processor.
+         *
+         * @param delegate results processor
+         * @throws IOException if an I/O error occurs
+         */
+        void run(ResultsProcessor delegate) throws IOException;
+    }
+
+    /**
+     * Output, a results processor with its own thread and bounded queue of pending tasks.
+     */
+    private final class Output implements Runnable {
+        private final int index;
+        private final ResultsProcessor delegate;
+        private final BlockingQueue<Task> queue;
+        private final Thread thread;
+        private volatile boolean stopped = false;
+        private volatile boolean done = false;
+        private volatile Throwable failure;
+
+
+        Output(final int index, final ResultsProcessor delegate, final int queueDepth) {
+            this.index = index;
+            this.delegate = delegate;
+            this.queue = new ArrayBlockingQueue<>(queueDepth);
+            this.thread = new Thread(this, "se-output-" + index);
+            this.thread.setDaemon(true);
+        }
+
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Task task = queue.poll(WAIT_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (task != null) {
+                        task.run(delegate);
+                        done = delegate.isDone();
+                    }
+                    else if (stopped || closed) {
+                        return;
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                if (!stopped && !closed) {
+                    failure = new InterruptedIOException("interrupted writing results to output " + name());
+                }
+                queue.clear();
+            }
+            catch (Throwable t) {
+                // record every failure, otherwise complete() would report success for a dead output
+                if (!closed) {
+                    logger.error("Could not write results to output {}, dropping it, caught exception", name(), t);
+                }
+                failure = t;
+                queue.clear();
+            }
+            finally {
+                // clear any interrupt from abort(), so that closing is not itself interrupted
+                Thread.interrupted();
+                try {
+                    delegate.close();
+                }
+                catch (RuntimeException e) {
+                    logger.warn("Could not close output {}, caught exception", name(), e);
+                }
+            }
+        }
+
+        /**
+         * Return the name of this output for messages, e.g. <code>2 of 3</code>.
+         *
+         * @return the name of this output for messages
+         */
+        String name() {
+            return (index + 1) + " of " + outputs.size();
+        }
+
+        /**
+         * Return true if this output is still accepting tasks.
+         *
+         * @return true if this output is still accepting tasks
+         */
+        boolean live() {
+            return !stopped && failure == null && thread.isAlive();
+        }
+
+        /**
+         * Send the specified task to this output unless it is done or no longer live.
+         *
+         * @param task task to send
+         * @return true if the task was sent
+         * @throws IOException if interrupted while waiting for space in the queue
+         */
+        boolean send(final Task task) throws IOException {
+            return send(task, false);
+        }
+
+        /**
+         * Send the specified task to this output unless it is no longer live, or unless it is done and
+         * <code>evenIfDone</code> is false.
+         *
+         * @param task task to send
+         * @param evenIfDone true to send the task even if this output is done
+         * @return true if the task was sent
+         * @throws IOException if interrupted while waiting for space in the queue
+         */
+        boolean send(final Task task, final boolean evenIfDone) throws IOException {
+            try {
+                while (live() && (evenIfDone || !done)) {
+                    if (queue.offer(task, WAIT_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted writing results to output " + name());
+            }
+        }
+
+        /**
+         * Wait for the specified latch, or for this output to stop running.
+         *
+         * @param latch latch to wait for
+         * @throws IOException if interrupted while waiting
+         */
+        void await(final CountDownLatch latch) throws IOException {
+            try {
+                while (!latch.await(WAIT_INTERVAL, TimeUnit.MILLISECONDS) && thread.isAlive()) {
+                    // wait
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for output " + name());
+            }
+        }
+
+        /**
+         * Stop this output once its queued tasks have run.
+         */
+        void stop() {
+            stopped = true;
+        }
+
+        /**
+         * Wait for this output to run its queued tasks and stop.
+         *
+         * @throws IOException if interrupted while waiting
+         */
+        void join() throws IOException {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for output " + name());
+            }
+        }
+
+        /**
+         * Discard queued tasks and signal this output to stop without waiting for them to run.
+         */
+        void abort() {
+            stopped = true;
+            queue.clear();
+            thread.interrupt();
+        }
+
+        /**
+         * Wait for this output thread to exit, having closed its results processor, even if interrupted.
+         *
+         * @return true if interrupted while waiting
+         */
+        boolean awaitExit() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    thread.join();
+                    return interrupted;
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Parameters;
+import picocli.CommandLine.ParentCommand;
+
+import software.amazon.awssdk.services.athena.AthenaClient;
+
+/**
+ * Fetch results of an existing query execution without running the query again.
+ */
+@Command(name = "fetch")
+final class Fetch implements Callable<Integer> {
+
+    @ParentCommand
+    private SeaEagle seaEagle;
+
+    @Parameters(index = "0", paramLabel = "<queryExecutionId>", descriptionKey = "query-execution-id")
+    private String queryExecutionId;
+
+    static final Logger logger = LoggerFactory.getLogger(Fetch.class);
+
+
+    @Override
+    public Integer call() throws Exception {
+        seaEagle.resolveOutputs();
+        if (seaEagle.isIncremental()) {
+            throw new IllegalArgumentException("--watermark-column not supported with fetch");
+        }
+        logger.info("Fetching results for query execution ID {}", queryExecutionId);
+        try (AthenaClient athenaClient = seaEagle.createAthenaClient()) {
+            seaEagle.startInFlightQueries(athenaClient);
+
+            // waits if still queued or running, fails if cancelled or failed
+            return seaEagle.processQueryExecution(athenaClient, queryExecutionId, null, null, null, false);
+        }
+        finally {
+            seaEagle.inFlightQueries().clear();
+        }
+    }
+}
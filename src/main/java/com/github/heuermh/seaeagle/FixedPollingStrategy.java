@@ -0,0 +1,42 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import software.amazon.awssdk.services.athena.model.QueryExecution;
+
+/**
+ * Fixed interval polling strategy.
+ */
+final class FixedPollingStrategy extends PollingStrategy {
+    private final long interval;
+
+    /**
+     * Create a new fixed interval polling strategy.
+     *
+     * @param interval polling interval in milliseconds, must be at least zero
+     */
+    FixedPollingStrategy(final long interval) {
+        checkArgument(interval >= 0L, "interval must be at least zero");
+        this.interval = interval;
+    }
+
+    @Override
+    long delay(final QueryExecution queryExecution, final int polls) {
+        return interval;
+    }
+}
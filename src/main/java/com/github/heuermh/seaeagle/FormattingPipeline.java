@@ -0,0 +1,210 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pipeline that decodes and formats pages of results in parallel.
+ *
+ * <p>
+ * Pages are fetched in order on a fetch thread, decoded into batches of rows and prepared by the
+ * results processor on a pool of worker threads, and written by the results processor on the calling
+ * thread in their original order.  The fetch thread stays at most <code>threads * 2</code> pages ahead
+ * of the writer, and results processors are notified of columns and batches exactly as if pages were
+ * processed one at a time, so output is the same.
+ * </p>
+ *
+ * <p>
+ * Only decoding and {@link ResultsProcessor#prepare(RowBatch)} run in parallel.  Writing, including any
+ * compression of the output stream, stays on the calling thread, as do results processors that do not
+ * prepare batches, such as {@link ParquetFormat}, so those see little speedup.
+ * </p>
+ */
+final class FormattingPipeline {
+    private final int threads;
+
+    /** Default number of format threads. */
+    static final int DEFAULT_THREADS = 1;
+
+    static final Logger logger = LoggerFactory.getLogger(FormattingPipeline.class);
+
+
+    /**
+     * Create a new formatting pipeline with the specified number of threads.
+     *
+     * @param threads number of worker threads, must be greater than zero
+     */
+    FormattingPipeline(final int threads) {
+        checkArgument(threads > 0, "threads must be greater than zero");
+        this.threads = threads;
+    }
+
+
+    /**
+     * Decoder of pages of results into batches of rows.
+     *
+     * @param <T> page type
+     */
+    @FunctionalInterface
+    interface Decoder<T> {
+
+        /**
+         * Decode the specified page of results into a batch of rows.
+         *
+         * @param page page of results
+         * @param firstPage true if the specified page is the first page of results
+         * @return the specified page of results decoded into a batch of rows
+         */
+        RowBatch decode(T page, boolean firstPage);
+    }
+
+    /**
+     * Process the specified pages of results with the specified results processor.
+     *
+     * @param <T> page type
+     * @param source pages of results, must not be null
+     * @param decoder decoder, must not be null
+     * @param processor results processor, must not be null
+     * @return the number of rows processed
+     * @throws IOException if an I/O error occurs
+     */
+    <T> long process(final Iterable<T> source, final Decoder<T> decoder, final ResultsProcessor processor) throws IOException {
+        checkNotNull(source);
+        checkNotNull(decoder);
+        checkNotNull(processor);
+
+        long start = System.nanoTime();
+        long count = 0L;
+        int pages = 0;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        BlockingQueue<Future<Prepared>> queue = new ArrayBlockingQueue<>(threads * 2);
+        Thread fetcher = new Thread(() -> fetch(source, decoder, processor, executorService, queue), "se-fetch");
+        fetcher.setDaemon(true);
+        fetcher.start();
+        try {
+            while (true) {
+                Prepared prepared = queue.take().get();
+                if (prepared == null) {
+                    break;
+                }
+                processor.columns(prepared.batch.columns());
+                processor.batch(prepared.batch, prepared.prepared);
+                count += prepared.batch.size();
+                pages++;
+                if (processor.isDone()) {
+                    break;
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted processing results");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("could not process results", cause);
+        }
+        finally {
+            fetcher.interrupt();
+            executorService.shutdownNow();
+        }
+
+        long elapsed = Math.max(1L, (System.nanoTime() - start) / 1000000L);
+        logger.info("Processed {} pages, {} rows in {} ms with {} format threads", pages, count, elapsed, threads);
+        return count;
+    }
+
+    /**
+     * Fetch pages of results in order, submitting each to be decoded and prepared, until exhausted,
+     * failed, or interrupted.
+     */
+    private <T> void fetch(final Iterable<T> source,
+                           final Decoder<T> decoder,
+                           final ResultsProcessor processor,
+                           final ExecutorService executorService,
+                           final BlockingQueue<Future<Prepared>> queue) {
+        try {
+            boolean firstPage = true;
+            for (T page : source) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                boolean first = firstPage;
+                // futures are queued in fetch order, so the writer takes pages in sequence
+                queue.put(executorService.submit(() -> {
+                            RowBatch batch = decoder.decode(page, first);
+                            return new Prepared(batch, processor.prepare(batch));
+                        }));
+                firstPage = false;
+            }
+            queue.put(CompletableFuture.completedFuture(null));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (RuntimeException | Error e) {
+            // post every failure, otherwise the writer would wait on the queue forever
+            CompletableFuture<Prepared> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            try {
+                queue.put(failed);
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+
+    /**
+     * Batch of rows prepared for a results processor.
+     */
+    private static final class Prepared {
+        private final RowBatch batch;
+        private final Object prepared;
+
+
+        Prepared(final RowBatch batch, final Object prepared) {
+            this.batch = batch;
+            this.prepared = prepared;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import java.util.Arrays;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+import picocli.CommandLine.ParentCommand;
+
+/**
+ * Search structured query history.
+ */
+@Command(name = "history")
+final class History implements Callable<Integer> {
+
+    @ParentCommand
+    private SeaEagle seaEagle;
+
+    @Parameters(index = "0", arity = "0..1", paramLabel = "<text>", descriptionKey = "history-text")
+    private String text;
+
+    @Option(names = { "--limit" }, descriptionKey = "history-limit")
+    private int limit = DEFAULT_LIMIT;
+
+    /** Default number of query history entries to show. */
+    static final int DEFAULT_LIMIT = 20;
+
+
+    @Override
+    public Integer call() throws Exception {
+        if (limit < 1) {
+            throw new IllegalArgumentException("--limit must be at least 1");
+        }
+        QueryHistory queryHistory = seaEagle.queryHistory();
+        List<QueryHistory.Entry> entries = text == null ? queryHistory.entries() : queryHistory.search(text);
+
+        PrettyTable table = new PrettyTable(false, false, '+', '-', '|', 2);
+        table.addColumn("timestamp", HorizontalAlignment.LEFT);
+        table.addColumn("query execution ID", HorizontalAlignment.LEFT);
+        table.addColumn("workgroup", HorizontalAlignment.LEFT);
+        table.addColumn("state", HorizontalAlignment.LEFT);
+        table.addColumn("wall time (ms)", HorizontalAlignment.RIGHT);
+        table.addColumn("bytes scanned", HorizontalAlignment.RIGHT);
+        table.addColumn("query", HorizontalAlignment.LEFT);
+
+        // most recent last, as in a shell history
+        for (QueryHistory.Entry entry : entries.subList(Math.max(0, entries.size() - limit), entries.size())) {
+            table.addRow(Arrays.asList(entry.timestamp().toString(),
+                                       entry.queryExecutionId(),
+                                       entry.workgroup() == null ? "" : entry.workgroup(),
+                                       entry.state(),
+                                       String.valueOf(entry.wallTime()),
+                                       entry.dataScannedInBytes() == null ? "" : String.valueOf(entry.dataScannedInBytes()),
+                                       ListExecutions.abbreviate(entry.query())));
+        }
+        System.out.println(table.toString());
+        return 0;
+    }
+}
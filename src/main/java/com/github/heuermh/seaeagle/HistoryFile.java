@@ -15,17 +15,26 @@
  */
 package com.github.heuermh.seaeagle;
 
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStream;
 
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.slf4j.Logger;
@@ -33,31 +42,188 @@ import org.slf4j.LoggerFactory;
 
 /**
  * History file.
+ *
+ * <p>
+ * Each query is appended as a single line, as before, with any line separators in the query escaped,
+ * while holding a file lock, so that queries written concurrently by many processes never interleave.
+ * Once the history file grows past its maximum size, duplicate queries are removed in the background,
+ * keeping the most recent of each, and if that is not enough the history file is rotated.  The lock
+ * file and rotated files are kept in the state directory.
+ * </p>
+ *
+ * <p>
+ * Lines written before line separators were escaped may be parts of multi-line queries, so the
+ * number of such lines is recorded once, and compaction keeps them as they are.
+ * </p>
  */
 final class HistoryFile {
     private final String fileName;
+    private final Path stateDirectory;
+    private RecordFile recordFile;
+    private Path legacyPath;
+    private Thread compaction;
     static final String DEFAULT_FILE_NAME = ".se_history";
     static final Logger logger = LoggerFactory.getLogger(HistoryFile.class);
 
 
-    HistoryFile() {
-        this(DEFAULT_FILE_NAME);
+    HistoryFile(final Path stateDirectory) {
+        this(DEFAULT_FILE_NAME, stateDirectory);
     }
 
-    HistoryFile(final String fileName) {
+    HistoryFile(final String fileName, final Path stateDirectory) {
         //checkNotNull(fileName);
+        //checkNotNull(stateDirectory);
         this.fileName = fileName;
+        this.stateDirectory = stateDirectory;
     }
 
     void append(final String value) {
-        try (PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(getHistoryFile(fileName), true)))) {
-            writer.println(value);
+        try {
+            RecordFile file = getRecordFile();
+            file.append(escape(value));
+            if (file.isFull()) {
+                compactInBackground(file);
+            }
         }
         catch (IOException e) {
             logger.warn("Could not write to history file, caught I/O exception", e);
         }
     }
 
+    private synchronized RecordFile getRecordFile() throws IOException {
+        if (recordFile == null) {
+            // check permissions once per process
+            Path path = getHistoryFile(fileName).toPath();
+            Files.createDirectories(stateDirectory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            Path base = stateDirectory.resolve(fileName.startsWith(".") ? fileName.substring(1) : fileName);
+            legacyPath = base.resolveSibling(base.getFileName() + ".legacy");
+            if (!Files.exists(legacyPath)) {
+                writeLegacyLines(countLines(path), false);
+            }
+            recordFile = new RecordFile(path, base, RecordFile.DEFAULT_MAX_SIZE, RecordFile.DEFAULT_KEEP);
+        }
+        return recordFile;
+    }
+
+    /**
+     * Compact the specified record file on a daemon thread.  Compaction is best effort, if this process
+     * exits first it is abandoned, leaving the history file intact, and retried by the next append.
+     */
+    private synchronized void compactInBackground(final RecordFile file) {
+        if (compaction != null && compaction.isAlive()) {
+            return;
+        }
+        Path legacy = legacyPath;
+        compaction = new Thread(() -> {
+                try {
+                    int legacyLines = readLegacyLines(legacy);
+                    int removed = file.compact(records -> compact(records, legacyLines));
+                    if (legacyLines > 0 && !Files.exists(file.path())) {
+                        // rotated, along with the legacy lines
+                        writeLegacyLines(legacy, 0L, true);
+                    }
+                    logger.info("Compacted history file {}, removed {} duplicate queries", file.path(), removed);
+                }
+                catch (IOException e) {
+                    logger.warn("Could not compact history file, caught I/O exception", e);
+                }
+        }, "se-history-compaction");
+        compaction.setDaemon(true);
+        compaction.start();
+    }
+
+    private void writeLegacyLines(final long lines, final boolean replace) throws IOException {
+        writeLegacyLines(legacyPath, lines, replace);
+    }
+
+    private static void writeLegacyLines(final Path legacyPath, final long lines, final boolean replace) throws IOException {
+        try {
+            Files.write(legacyPath, String.valueOf(lines).getBytes(StandardCharsets.UTF_8),
+                        replace ? StandardOpenOption.CREATE : StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        catch (FileAlreadyExistsException e) {
+            // recorded concurrently by another process
+        }
+    }
+
+    /**
+     * Read the number of legacy lines at the start of the history file, or if it cannot be read,
+     * <code>Integer.MAX_VALUE</code> so that compaction keeps all lines as they are.
+     */
+    static int readLegacyLines(final Path legacyPath) {
+        try {
+            return (int) Math.min(Integer.MAX_VALUE, Long.parseLong(new String(Files.readAllBytes(legacyPath), StandardCharsets.UTF_8).trim()));
+        }
+        catch (IOException | NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Count the lines in the specified file, if it exists.
+     */
+    static long countLines(final Path path) throws IOException {
+        long lines = 0L;
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(path))) {
+            int b;
+            while ((b = inputStream.read()) != -1) {
+                if (b == '\n') {
+                    lines++;
+                }
+            }
+        }
+        catch (NoSuchFileException e) {
+            // empty
+        }
+        return lines;
+    }
+
+    /**
+     * Compact the specified list of records, keeping the specified number of legacy records at the start
+     * as they are and removing duplicates from the rest.
+     *
+     * @param records list of records, oldest first
+     * @param legacyLines number of legacy records at the start of the list
+     * @return the specified list of records compacted, oldest first
+     */
+    static List<String> compact(final List<String> records, final int legacyLines) {
+        int legacy = Math.min(Math.max(0, legacyLines), records.size());
+        List<String> compacted = new ArrayList<>(records.subList(0, legacy));
+        compacted.addAll(removeDuplicates(records.subList(legacy, records.size())));
+        return compacted;
+    }
+
+    /**
+     * Remove duplicate records from the specified list of records, keeping the most recent of each.
+     *
+     * @param records list of records, oldest first
+     * @return the specified list of records with duplicates removed, oldest first
+     */
+    static List<String> removeDuplicates(final List<String> records) {
+        Set<String> seen = new HashSet<>(records.size());
+        List<String> deduplicated = new ArrayList<>(records.size());
+        for (int i = records.size() - 1; i >= 0; i--) {
+            if (seen.add(records.get(i))) {
+                deduplicated.add(records.get(i));
+            }
+        }
+        Collections.reverse(deduplicated);
+        return deduplicated;
+    }
+
+    /**
+     * Escape line separators in the specified value, so that it fits in a single record.  Queries
+     * without line separators are written as they are.
+     *
+     * @param value value to escape
+     * @return the specified value escaped
+     */
+    static String escape(final String value) {
+        return value.replace("\n", "\\n").replace("\r", "\\r");
+    }
+
     static File getHistoryFile(final String fileName) throws IOException {
         File homeDirectory = new File(System.getProperty("user.home"));
         File historyFile = new File(homeDirectory, fileName);
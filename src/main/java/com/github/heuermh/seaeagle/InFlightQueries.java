@@ -0,0 +1,233 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.core.exception.SdkException;
+
+import software.amazon.awssdk.services.athena.AthenaClient;
+
+import software.amazon.awssdk.services.athena.model.StopQueryExecutionRequest;
+
+/**
+ * In-flight query executions and the outputs being written for them.
+ *
+ * <p>
+ * On shutdown, interruption, or timeout, every in-flight query execution is stopped with
+ * <code>StopQueryExecution</code>, so it no longer scans data or holds a workgroup concurrency
+ * slot.  On shutdown, the threads writing registered outputs are also interrupted, and given
+ * a few seconds to close them.  Outputs are only ever closed by the threads writing them, as
+ * closing e.g. a Parquet or compressed output mid-write may corrupt it.
+ * </p>
+ */
+final class InFlightQueries {
+    private final Set<String> queryExecutionIds = ConcurrentHashMap.newKeySet();
+    private final Map<AutoCloseable, Thread> outputs = new ConcurrentHashMap<>();
+    private volatile AthenaClient athenaClient;
+    private volatile boolean timedOut = false;
+    private Thread shutdownHook;
+    private Timer timer;
+
+    /** Time to wait on shutdown for interrupted threads to close their outputs, in milliseconds. */
+    static final long SHUTDOWN_CLOSE_TIMEOUT = 5000L;
+
+    static final Logger logger = LoggerFactory.getLogger(InFlightQueries.class);
+
+
+    /**
+     * Add the specified query execution ID.
+     *
+     * @param queryExecutionId query execution ID to add, must not be null
+     */
+    void add(final String queryExecutionId) {
+        checkNotNull(queryExecutionId);
+        queryExecutionIds.add(queryExecutionId);
+    }
+
+    /**
+     * Remove the specified query execution ID, e.g. once it has reached a final state.
+     *
+     * @param queryExecutionId query execution ID to remove
+     */
+    void remove(final String queryExecutionId) {
+        queryExecutionIds.remove(queryExecutionId);
+    }
+
+    /**
+     * Register the specified output, written and closed by the current thread, which is
+     * interrupted on shutdown.
+     *
+     * @param output output to register, must not be null
+     */
+    void register(final AutoCloseable output) {
+        checkNotNull(output);
+        outputs.put(output, Thread.currentThread());
+    }
+
+    /**
+     * Unregister the specified output, e.g. once it has been closed.
+     *
+     * @param output output to unregister
+     */
+    void unregister(final AutoCloseable output) {
+        outputs.remove(output);
+    }
+
+    /**
+     * Return true if the timeout has elapsed.
+     *
+     * @return true if the timeout has elapsed
+     */
+    boolean timedOut() {
+        return timedOut;
+    }
+
+    /**
+     * Install a shutdown hook that stops in-flight query executions with the specified Athena client
+     * and interrupts the threads writing registered outputs, waiting for them to close their outputs.
+     *
+     * @param athenaClient Athena client, must not be null
+     */
+    synchronized void installShutdownHook(final AthenaClient athenaClient) {
+        checkNotNull(athenaClient);
+        this.athenaClient = athenaClient;
+        if (shutdownHook == null) {
+            shutdownHook = new Thread(() -> {
+                    stopAll();
+                    interruptAll();
+                    awaitOutputs(SHUTDOWN_CLOSE_TIMEOUT);
+            }, "se-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+    }
+
+    /**
+     * Schedule a timeout after the specified number of seconds, which stops in-flight query executions
+     * and interrupts the specified thread, so that it may close its outputs.
+     *
+     * @param seconds timeout in seconds, must be greater than zero
+     * @param thread thread to interrupt, must not be null
+     */
+    synchronized void scheduleTimeout(final long seconds, final Thread thread) {
+        checkArgument(seconds > 0L, "seconds must be greater than zero");
+        checkNotNull(thread);
+        timer = new Timer("se-timeout", true);
+        timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    logger.error("Timed out after {} seconds", seconds);
+                    timedOut = true;
+                    stopAll();
+                    thread.interrupt();
+                }
+            }, seconds * 1000L);
+    }
+
+    /**
+     * Stop all in-flight query executions.
+     */
+    void stopAll() {
+        List<String> ids = new ArrayList<>(queryExecutionIds);
+        for (String queryExecutionId : ids) {
+            stop(queryExecutionId);
+        }
+    }
+
+    /**
+     * Stop the specified query execution, if it is in flight.
+     *
+     * @param queryExecutionId query execution ID to stop
+     */
+    void stop(final String queryExecutionId) {
+        AthenaClient client = athenaClient;
+        if (client == null || !queryExecutionIds.remove(queryExecutionId)) {
+            return;
+        }
+        try {
+            logger.warn("Stopping query execution for ID {}", queryExecutionId);
+            client.stopQueryExecution(StopQueryExecutionRequest.builder()
+                                      .queryExecutionId(queryExecutionId)
+                                      .build());
+        }
+        catch (SdkException e) {
+            logger.error("Could not stop query execution for ID {}, caught exception", queryExecutionId, e);
+        }
+    }
+
+    /**
+     * Interrupt the threads writing registered outputs, so that they close them.
+     */
+    void interruptAll() {
+        for (Thread thread : new HashSet<>(outputs.values())) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Wait up to the specified number of milliseconds for all registered outputs to be closed and unregistered.
+     *
+     * @param millis time to wait in milliseconds
+     */
+    void awaitOutputs(final long millis) {
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            while (!outputs.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50L);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!outputs.isEmpty()) {
+            logger.warn("{} outputs still open after {} ms, may be incomplete", outputs.size(), millis);
+        }
+    }
+
+    /**
+     * Cancel the timeout, if any, and remove the shutdown hook, if any.
+     */
+    synchronized void clear() {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            }
+            catch (IllegalStateException e) {
+                // already shutting down
+            }
+            shutdownHook = null;
+        }
+        athenaClient = null;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+
+import java.util.List;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+
+/**
+ * Limiting results processor, passes at most a maximum number of rows on to another results processor,
+ * after which it is done and paging through results stops.
+ */
+final class LimitingResultsProcessor extends ResultsProcessor {
+    private final long maxRows;
+    private final ResultsProcessor delegate;
+    private long rows = 0L;
+
+
+    /**
+     * Create a new limiting results processor.
+     *
+     * @param maxRows maximum number of rows, must be greater than zero
+     * @param delegate results processor to delegate to, must not be null
+     */
+    LimitingResultsProcessor(final long maxRows, final ResultsProcessor delegate) {
+        checkArgument(maxRows > 0L, "maxRows must be greater than zero");
+        checkNotNull(delegate);
+        this.maxRows = maxRows;
+        this.delegate = delegate;
+    }
+
+
+    @Override
+    void columns(final List<ColumnInfo> columns) throws IOException {
+        delegate.columns(columns);
+    }
+
+    @Override
+    Object prepare(final RowBatch batch) throws IOException {
+        return delegate.prepare(batch);
+    }
+
+    @Override
+    void batch(final RowBatch batch) throws IOException {
+        batch(batch, prepare(batch));
+    }
+
+    @Override
+    void batch(final RowBatch batch, final Object prepared) throws IOException {
+        long remaining = maxRows - rows;
+        if (remaining <= 0L) {
+            return;
+        }
+        if (batch.size() <= remaining) {
+            delegate.batch(batch, prepared);
+            rows += batch.size();
+        }
+        else {
+            // prepared for the whole batch, prepare again for the rows within the limit
+            RowBatch limited = batch.limit((int) remaining);
+            delegate.batch(limited, delegate.prepare(limited));
+            rows += limited.size();
+        }
+    }
+
+    @Override
+    boolean isDone() {
+        return rows >= maxRows || delegate.isDone();
+    }
+
+    @Override
+    void flush() throws IOException {
+        delegate.flush();
+    }
+
+    @Override
+    void complete() throws IOException {
+        delegate.complete();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.ParentCommand;
+
+import software.amazon.awssdk.services.athena.AthenaClient;
+
+import software.amazon.awssdk.services.athena.model.BatchGetQueryExecutionRequest;
+import software.amazon.awssdk.services.athena.model.ListQueryExecutionsRequest;
+import software.amazon.awssdk.services.athena.model.ListQueryExecutionsResponse;
+import software.amazon.awssdk.services.athena.model.QueryExecution;
+import software.amazon.awssdk.services.athena.model.QueryExecutionStatistics;
+import software.amazon.awssdk.services.athena.model.QueryExecutionStatus;
+
+/**
+ * List recent query executions for a workgroup.
+ */
+@Command(name = "list")
+final class ListExecutions implements Callable<Integer> {
+
+    @ParentCommand
+    private SeaEagle seaEagle;
+
+    @Option(names = { "--limit" })
+    private int limit = DEFAULT_LIMIT;
+
+    /** Default number of query executions to list. */
+    static final int DEFAULT_LIMIT = 20;
+
+    /** Maximum number of query execution IDs per <code>ListQueryExecutions</code> call. */
+    static final int MAX_RESULTS = 50;
+
+    /** Maximum length of query to display. */
+    static final int MAX_QUERY_LENGTH = 60;
+
+    static final Logger logger = LoggerFactory.getLogger(ListExecutions.class);
+
+
+    @Override
+    public Integer call() throws Exception {
+        if (limit < 1) {
+            throw new IllegalArgumentException("--limit must be at least 1");
+        }
+        try (AthenaClient athenaClient = seaEagle.createAthenaClient()) {
+
+            // most recent first
+            List<String> queryExecutionIds = new ArrayList<>(limit);
+            String nextToken = null;
+            do {
+                ListQueryExecutionsRequest.Builder builder = ListQueryExecutionsRequest.builder()
+                    .maxResults(Math.min(MAX_RESULTS, limit - queryExecutionIds.size()))
+                    .nextToken(nextToken);
+                if (seaEagle.workgroup() != null) {
+                    builder.workGroup(seaEagle.workgroup());
+                }
+                ListQueryExecutionsRequest request = builder.build();
+                ListQueryExecutionsResponse response = seaEagle.retry("list query executions", () -> athenaClient.listQueryExecutions(request));
+                queryExecutionIds.addAll(response.queryExecutionIds());
+                nextToken = response.nextToken();
+            }
+            while (nextToken != null && queryExecutionIds.size() < limit);
+            logger.info("Listed {} query execution IDs for workgroup {}", queryExecutionIds.size(), seaEagle.workgroup());
+
+            Map<String, QueryExecution> queryExecutions = new HashMap<>(queryExecutionIds.size());
+            for (int i = 0, size = queryExecutionIds.size(); i < size; i += QueryExecutionPoller.MAX_BATCH_SIZE) {
+                BatchGetQueryExecutionRequest request = BatchGetQueryExecutionRequest.builder()
+                    .queryExecutionIds(queryExecutionIds.subList(i, Math.min(size, i + QueryExecutionPoller.MAX_BATCH_SIZE)))
+                    .build();
+                for (QueryExecution queryExecution : seaEagle.retry("batch get query executions", () -> athenaClient.batchGetQueryExecution(request)).queryExecutions()) {
+                    queryExecutions.put(queryExecution.queryExecutionId(), queryExecution);
+                }
+            }
+
+            PrettyTable table = new PrettyTable(false, false, '+', '-', '|', 2);
+            table.addColumn("query execution ID", HorizontalAlignment.LEFT);
+            table.addColumn("state", HorizontalAlignment.LEFT);
+            table.addColumn("submitted", HorizontalAlignment.LEFT);
+            table.addColumn("engine time (ms)", HorizontalAlignment.RIGHT);
+            table.addColumn("bytes scanned", HorizontalAlignment.RIGHT);
+            table.addColumn("query", HorizontalAlignment.LEFT);
+            for (String queryExecutionId : queryExecutionIds) {
+                QueryExecution queryExecution = queryExecutions.get(queryExecutionId);
+                if (queryExecution == null) {
+                    table.addRow(Arrays.asList(queryExecutionId, "", "", "", "", ""));
+                    continue;
+                }
+                QueryExecutionStatus status = queryExecution.status();
+                QueryExecutionStatistics statistics = queryExecution.statistics();
+                table.addRow(Arrays.asList(queryExecutionId,
+                                           status == null || status.state() == null ? "" : status.state().toString(),
+                                           status == null || status.submissionDateTime() == null ? "" : status.submissionDateTime().toString(),
+                                           statistics == null || statistics.engineExecutionTimeInMillis() == null ? "" : String.valueOf(statistics.engineExecutionTimeInMillis()),
+                                           statistics == null || statistics.dataScannedInBytes() == null ? "" : String.valueOf(statistics.dataScannedInBytes()),
+                                           abbreviate(queryExecution.query())));
+            }
+            System.out.println(table.toString());
+        }
+        return 0;
+    }
+
+    static String abbreviate(final String query) {
+        if (query == null) {
+            return "";
+        }
+        String collapsed = query.trim().replaceAll("\\s+", " ");
+        return collapsed.length() > MAX_QUERY_LENGTH ? collapsed.substring(0, MAX_QUERY_LENGTH - 3) + "..." : collapsed;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ParentCommand;
+
+import software.amazon.awssdk.services.athena.AthenaClient;
+
+/**
+ * Refresh the local metadata cache used for shell completion.
+ */
+@Command(name = "metadata")
+final class Metadata implements Callable<Integer> {
+
+    @ParentCommand
+    private SeaEagle seaEagle;
+
+    static final Logger logger = LoggerFactory.getLogger(Metadata.class);
+
+
+    @Override
+    public Integer call() throws Exception {
+        MetadataCache metadataCache = seaEagle.createMetadataCache();
+        try (AthenaClient athenaClient = seaEagle.createAthenaClient()) {
+            List<String> catalogs = new ArrayList<>();
+            if (seaEagle.catalog() != null) {
+                catalogs.add(seaEagle.catalog());
+            }
+            else {
+                metadataCache.refreshCatalogs(athenaClient, seaEagle.retryPolicy(), seaEagle.workgroup());
+                catalogs.addAll(metadataCache.catalogs());
+            }
+            for (String catalog : catalogs) {
+                metadataCache.refresh(athenaClient, seaEagle.retryPolicy(), seaEagle.workgroup(), catalog);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+
+import java.net.URLEncoder;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.nio.file.attribute.PosixFilePermissions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.services.athena.AthenaClient;
+
+import software.amazon.awssdk.services.athena.model.Column;
+import software.amazon.awssdk.services.athena.model.DataCatalogSummary;
+import software.amazon.awssdk.services.athena.model.Database;
+import software.amazon.awssdk.services.athena.model.ListDataCatalogsRequest;
+import software.amazon.awssdk.services.athena.model.ListDataCatalogsResponse;
+import software.amazon.awssdk.services.athena.model.ListDatabasesRequest;
+import software.amazon.awssdk.services.athena.model.ListDatabasesResponse;
+import software.amazon.awssdk.services.athena.model.ListTableMetadataRequest;
+import software.amazon.awssdk.services.athena.model.ListTableMetadataResponse;
+import software.amazon.awssdk.services.athena.model.TableMetadata;
+
+/**
+ * Local cache of catalog, database, table, and column names.
+ *
+ * <p>
+ * The list of catalogs, and the databases, tables, and columns of each catalog, are each stored in
+ * a small escaped tab-delimited file that loads in a few milliseconds.  Files are stale once older than
+ * their time to live, which may be configured per catalog, and are refreshed while holding a file lock,
+ * so that at most one process refreshes each file at a time.
+ * </p>
+ */
+final class MetadataCache {
+    private final Path directory;
+    private final long ttl;
+    private final Map<String, Long> catalogTtls;
+
+    /** Default time to live, in seconds. */
+    static final long DEFAULT_TTL = 86400L;
+
+    /** Default catalog. */
+    static final String DEFAULT_CATALOG = "AwsDataCatalog";
+
+    static final String CATALOGS = "catalogs.tsv";
+    static final String DATABASE = "D";
+    static final String TABLE = "T";
+    static final String COLUMN = "C";
+    static final Logger logger = LoggerFactory.getLogger(MetadataCache.class);
+
+
+    /**
+     * Create a new metadata cache.
+     *
+     * @param directory cache directory, must not be null
+     * @param ttl default time to live, in seconds, must be greater than zero
+     * @param catalogTtls time to live per catalog, in seconds, must not be null
+     */
+    MetadataCache(final Path directory, final long ttl, final Map<String, Long> catalogTtls) {
+        checkNotNull(directory);
+        checkArgument(ttl > 0L, "ttl must be greater than zero");
+        checkNotNull(catalogTtls);
+        this.directory = directory;
+        this.ttl = ttl;
+        this.catalogTtls = catalogTtls;
+    }
+
+
+    /**
+     * Return the cached catalog names.
+     *
+     * @return the cached catalog names, or an empty list if none are cached
+     * @throws IOException if an I/O error occurs
+     */
+    List<String> catalogs() throws IOException {
+        List<String> catalogs = new ArrayList<>();
+        for (List<String> fields : read(directory.resolve(CATALOGS))) {
+            catalogs.add(fields.get(0));
+        }
+        return catalogs;
+    }
+
+    /**
+     * Return the cached database names for the specified catalog.
+     *
+     * @param catalog catalog, must not be null
+     * @return the cached database names for the specified catalog, or an empty list if none are cached
+     * @throws IOException if an I/O error occurs
+     */
+    List<String> databases(final String catalog) throws IOException {
+        List<String> databases = new ArrayList<>();
+        for (List<String> fields : read(path(catalog))) {
+            if (DATABASE.equals(fields.get(0)) && fields.size() > 1) {
+                databases.add(fields.get(1));
+            }
+        }
+        return databases;
+    }
+
+    /**
+     * Return the cached table names for the specified catalog and database.
+     *
+     * @param catalog catalog, must not be null
+     * @param database database, if any
+     * @return the cached table names for the specified catalog and database, or an empty list if none are cached
+     * @throws IOException if an I/O error occurs
+     */
+    List<String> tables(final String catalog, final String database) throws IOException {
+        List<String> tables = new ArrayList<>();
+        for (List<String> fields : read(path(catalog))) {
+            if (TABLE.equals(fields.get(0)) && fields.size() > 2 && (database == null || database.equals(fields.get(1)))) {
+                tables.add(fields.get(2));
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * Return the cached column names for the specified catalog, database, and table.
+     *
+     * @param catalog catalog, must not be null
+     * @param database database, if any
+     * @param table table, if any
+     * @return the cached column names for the specified catalog, database, and table, or an empty list if none are cached
+     * @throws IOException if an I/O error occurs
+     */
+    List<String> columns(final String catalog, final String database, final String table) throws IOException {
+        // distinct column names, in order, across every matching table
+        Set<String> columns = new LinkedHashSet<>();
+        for (List<String> fields : read(path(catalog))) {
+            if (COLUMN.equals(fields.get(0)) && fields.size() > 3
+                && (database == null || database.equals(fields.get(1)))
+                && (table == null || table.equals(fields.get(2)))) {
+                columns.add(fields.get(3));
+            }
+        }
+        return new ArrayList<>(columns);
+    }
+
+    /**
+     * Return true if the cached metadata for the specified catalog, or the cached list of catalogs
+     * if catalog is null, is missing or older than its time to live.
+     *
+     * @param catalog catalog, if any
+     * @return true if the cached metadata is missing or older than its time to live
+     * @throws IOException if an I/O error occurs
+     */
+    boolean isStale(final String catalog) throws IOException {
+        Path path = catalog == null ? directory.resolve(CATALOGS) : path(catalog);
+        try {
+            long age = System.currentTimeMillis() - Files.getLastModifiedTime(path).toMillis();
+            return age > 1000L * (catalog == null ? ttl : catalogTtls.getOrDefault(catalog, ttl));
+        }
+        catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Return true if the cached metadata for the specified catalog, or the cached list of catalogs
+     * if catalog is null, is being refreshed by another process.
+     *
+     * @param catalog catalog, if any
+     * @return true if the cached metadata is being refreshed by another process
+     * @throws IOException if an I/O error occurs
+     */
+    boolean isRefreshing(final String catalog) throws IOException {
+        Path path = catalog == null ? directory.resolve(CATALOGS) : path(catalog);
+        if (!Files.isDirectory(directory)) {
+            return false;
+        }
+        try (FileChannel channel = openLock(path); FileLock lock = tryLock(channel)) {
+            return lock == null;
+        }
+    }
+
+    /**
+     * Refresh the cached list of catalogs.
+     *
+     * @param athenaClient Athena client, must not be null
+     * @param retryPolicy retry policy, must not be null
+     * @param workgroup workgroup, if any
+     * @return true if refreshed, false if being refreshed by another process
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if interrupted
+     */
+    boolean refreshCatalogs(final AthenaClient athenaClient, final RetryPolicy retryPolicy, final String workgroup)
+        throws IOException, InterruptedException {
+
+        checkNotNull(athenaClient);
+        checkNotNull(retryPolicy);
+        return refresh(directory.resolve(CATALOGS), () -> {
+                List<List<String>> records = new ArrayList<>();
+                String nextToken = null;
+                do {
+                    ListDataCatalogsRequest request = ListDataCatalogsRequest.builder()
+                        .workGroup(workgroup)
+                        .nextToken(nextToken)
+                        .build();
+                    ListDataCatalogsResponse response = retryPolicy.execute("list data catalogs", () -> athenaClient.listDataCatalogs(request));
+                    for (DataCatalogSummary summary : response.dataCatalogsSummary()) {
+                        records.add(Collections.singletonList(summary.catalogName()));
+                    }
+                    nextToken = response.nextToken();
+                }
+                while (nextToken != null);
+                return records;
+            });
+    }
+
+    /**
+     * Refresh the cached databases, tables, and columns for the specified catalog.
+     *
+     * @param athenaClient Athena client, must not be null
+     * @param retryPolicy retry policy, must not be null
+     * @param workgroup workgroup, if any
+     * @param catalog catalog, must not be null
+     * @return true if refreshed, false if being refreshed by another process
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if interrupted
+     */
+    boolean refresh(final AthenaClient athenaClient, final RetryPolicy retryPolicy, final String workgroup, final String catalog)
+        throws IOException, InterruptedException {
+
+        checkNotNull(athenaClient);
+        checkNotNull(retryPolicy);
+        checkNotNull(catalog);
+        return refresh(path(catalog), () -> {
+                List<List<String>> records = new ArrayList<>();
+                List<String> databases = new ArrayList<>();
+                String nextToken = null;
+                do {
+                    ListDatabasesRequest request = ListDatabasesRequest.builder()
+                        .catalogName(catalog)
+                        .workGroup(workgroup)
+                        .nextToken(nextToken)
+                        .build();
+                    ListDatabasesResponse response = retryPolicy.execute("list databases in catalog " + catalog, () -> athenaClient.listDatabases(request));
+                    for (Database database : response.databaseList()) {
+                        databases.add(database.name());
+                        records.add(List.of(DATABASE, database.name()));
+                    }
+                    nextToken = response.nextToken();
+                }
+                while (nextToken != null);
+
+                for (String database : databases) {
+                    do {
+                        ListTableMetadataRequest request = ListTableMetadataRequest.builder()
+                            .catalogName(catalog)
+                            .databaseName(database)
+                            .workGroup(workgroup)
+                            .nextToken(nextToken)
+                            .build();
+                        ListTableMetadataResponse response = retryPolicy.execute("list table metadata in database " + database, () -> athenaClient.listTableMetadata(request));
+                        for (TableMetadata tableMetadata : response.tableMetadataList()) {
+                            records.add(List.of(TABLE, database, tableMetadata.name()));
+                            for (Column column : tableMetadata.columns()) {
+                                records.add(List.of(COLUMN, database, tableMetadata.name(), column.name(), column.type() == null ? "" : column.type()));
+                            }
+                            for (Column column : tableMetadata.partitionKeys()) {
+                                records.add(List.of(COLUMN, database, tableMetadata.name(), column.name(), column.type() == null ? "" : column.type()));
+                            }
+                        }
+                        nextToken = response.nextToken();
+                    }
+                    while (nextToken != null);
+                }
+                logger.info("Listed {} databases in catalog {}", databases.size(), catalog);
+                return records;
+            });
+    }
+
+    /**
+     * Metadata listing.
+     */
+    @FunctionalInterface
+    interface Listing {
+
+        /**
+         * List metadata records.
+         *
+         * @return metadata records
+         * @throws InterruptedException if interrupted
+         */
+        List<List<String>> list() throws InterruptedException;
+    }
+
+    private boolean refresh(final Path path, final Listing listing) throws IOException, InterruptedException {
+        if (!Files.isDirectory(directory)) {
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        }
+        try (FileChannel channel = openLock(path); FileLock lock = tryLock(channel)) {
+            if (lock == null) {
+                logger.info("Metadata cache {} being refreshed by another process", path);
+                return false;
+            }
+            List<List<String>> records = listing.list();
+
+            // write and rename, so readers never see a partial file
+            Path temp = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID());
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (List<String> record : records) {
+                    StringBuilder sb = new StringBuilder();
+                    for (int i = 0, size = record.size(); i < size; i++) {
+                        if (i > 0) {
+                            sb.append('\t');
+                        }
+                        ResultCache.escape(sb, record.get(i));
+                    }
+                    writer.write(sb.toString());
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            logger.info("Wrote {} records to metadata cache {}", records.size(), path);
+            return true;
+        }
+    }
+
+    private Path path(final String catalog) {
+        checkNotNull(catalog);
+        return directory.resolve("catalog-" + URLEncoder.encode(catalog, StandardCharsets.UTF_8) + ".tsv");
+    }
+
+    private static List<List<String>> read(final Path path) throws IOException {
+        List<List<String>> records = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                List<String> fields = ResultCache.split(line);
+                if (!fields.isEmpty() && fields.get(0) != null) {
+                    records.add(fields);
+                }
+            }
+        }
+        catch (NoSuchFileException e) {
+            // empty
+        }
+        return records;
+    }
+
+    private static FileChannel openLock(final Path path) throws IOException {
+        return FileChannel.open(path.resolveSibling(path.getFileName() + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private static FileLock tryLock(final FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        }
+        catch (OverlappingFileLockException e) {
+            return null;
+        }
+    }
+}
@@ -34,11 +34,14 @@ import java.util.List;
 import com.google.common.collect.ImmutableMap;
 
 import software.amazon.awssdk.services.athena.model.ColumnInfo;
-import software.amazon.awssdk.services.athena.model.Datum;
-import software.amazon.awssdk.services.athena.model.Row;
 
 /**
  * Parquet format.
+ *
+ * <p>
+ * Batches are not prepared ahead of time, so inserts into DuckDB and writing the Parquet file
+ * happen on the writer thread even with several format threads.
+ * </p>
  */
 class ParquetFormat extends ResultsProcessor {
     private final Path resultsPath;
@@ -47,8 +50,8 @@ class ParquetFormat extends ResultsProcessor {
     private String copySql;
     private Connection connection;
     private PreparedStatement insertStatement;
+    private int[] sqlTypes;
     private boolean seenHeader = false;
-    protected boolean seenHeaderRow = false;
 
     private static final String COPY_SQL = "COPY results TO '%s' (FORMAT 'PARQUET', CODEC 'ZSTD')";
 
@@ -119,14 +122,19 @@ class ParquetFormat extends ResultsProcessor {
             StringBuilder insert = new StringBuilder();
             insert.append("INSERT INTO results (");
 
+            // look up SQL types once, not per value
+            sqlTypes = new int[columns.size()];
+            int index = 0;
             for (Iterator<ColumnInfo> it = columns.iterator(); it.hasNext(); ) {
                 ColumnInfo columnInfo = it.next();
                 String columnName = columnInfo.name();
-                String columnType = columnInfo.type();
+                ColumnType columnType = ColumnType.of(columnInfo);
+                Integer sqlType = TYPES.get(columnType.name());
+                sqlTypes[index++] = sqlType == null ? Types.VARCHAR : sqlType;
 
                 create.append(columnName);
                 create.append(" ");
-                create.append(TYPE_NAMES.get(columnType));
+                create.append(typeName(columnType));
 
                 insert.append(columnName);
 
@@ -151,60 +159,64 @@ class ParquetFormat extends ResultsProcessor {
             insertSql = insert.toString();
             copySql = String.format(COPY_SQL, resultsPath.toString());
 
+            // columns are notified once per page, create table only once
+            try (Statement createStatement = connection.createStatement()) {
+                createStatement.execute(createSql);
+            }
+            catch (SQLException e) {
+                throw new IOException(e);
+            }
+            try {
+                insertStatement = connection.prepareStatement(insertSql);
+            }
+            catch (SQLException e) {
+                throw new IOException(e);
+            }
             seenHeader = true;
         }
+    }
 
-        try (Statement createStatement = connection.createStatement()) {
-            createStatement.execute(createSql);
-        }
-        catch (SQLException e) {
-            throw new IOException(e);
-        }
+    @Override
+    void batch(final RowBatch batch) throws IOException {
         try {
-            insertStatement = connection.prepareStatement(insertSql);
+            for (int r = 0, size = batch.size(), columns = batch.columnCount(); r < size; r++) {
+                insertStatement.clearParameters();
+                for (int c = 0; c < columns; c++) {
+                    if (batch.isNull(c, r)) {
+                        insertStatement.setNull(c + 1, sqlTypes[c]);
+                        continue;
+                    }
+                    switch (batch.kind(c)) {
+                        case LONG:
+                            insertStatement.setLong(c + 1, batch.getLong(c, r));
+                            break;
+                        case DOUBLE:
+                            insertStatement.setDouble(c + 1, batch.getDouble(c, r));
+                            break;
+                        case BOOLEAN:
+                            insertStatement.setBoolean(c + 1, batch.getBoolean(c, r));
+                            break;
+                        case STRING:
+                        default:
+                            insertStatement.setObject(c + 1, batch.getString(c, r), sqlTypes[c]);
+                            break;
+                    }
+                }
+                insertStatement.executeUpdate();
+            }
         }
         catch (SQLException e) {
-            throw new IOException(e);
-        }
-    }
-
-    // sigh... 
-    protected final boolean isHeaderRow(final List<ColumnInfo> columns, final Row row) {
-        if (columns.isEmpty()) {
-            return false;
-        }
-        if (row.data().isEmpty()) {
-            return false;
-        }
-        String firstColumnName = columns.get(0).name();
-        String firstRowValue = row.data().get(0).varCharValue();
-
-        if (firstColumnName.equals(firstRowValue)) {
-            seenHeaderRow = true;
-            return true;
+            throw new IOException (e);
         }
-        return false;
     }
 
-    @Override
-    void rows(final List<ColumnInfo> columns, final List<Row> rows) throws IOException {
-        for (Row row : rows) {
-            if (seenHeaderRow || !isHeaderRow(columns, row)) {
-                try {
-                    insertStatement.clearParameters();
-                    for (int i = 0; i < row.data().size(); i++) {
-                        Datum datum = row.data().get(i);
-                        ColumnInfo columnInfo = columns.get(i);
-                        String columnType = columnInfo.type();
-                        insertStatement.setObject(i + 1, datum.varCharValue(), TYPES.get(columnType));
-                    }
-                    insertStatement.executeUpdate();
-                }
-                catch (SQLException e) {
-                    throw new IOException (e);
-                }
-            }
+    static String typeName(final ColumnType columnType) {
+        String typeName = TYPE_NAMES.getOrDefault(columnType.name(), "VARCHAR");
+        // decimal(precision, scale), DuckDB supports precision up to 38
+        if ("DECIMAL".equals(typeName) && columnType.precision() != null && columnType.precision() <= 38) {
+            return "DECIMAL(" + columnType.precision() + ", " + (columnType.scale() == null ? 0 : columnType.scale()) + ")";
         }
+        return typeName;
     }
 
     @Override
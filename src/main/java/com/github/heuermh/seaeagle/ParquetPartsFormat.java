@@ -0,0 +1,142 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+
+/**
+ * Parquet format written as a sequence of part files, each finished on flush,
+ * and merged into a single Parquet file when complete.
+ */
+final class ParquetPartsFormat extends ResultsProcessor {
+    private final Path resultsPath;
+    private int parts;
+    private ParquetFormat part;
+
+    private static final String PART = ".part-%05d.parquet";
+
+
+    /**
+     * Create a new Parquet parts format.
+     *
+     * @param resultsPath results path, must not be null
+     * @param parts number of part files already written, must be at least zero
+     */
+    ParquetPartsFormat(final Path resultsPath, final int parts) {
+        checkNotNull(resultsPath);
+        checkArgument(parts >= 0, "parts must be at least zero");
+        this.resultsPath = resultsPath;
+        this.parts = parts;
+    }
+
+
+    /**
+     * Return the number of part files written.
+     *
+     * @return the number of part files written
+     */
+    int parts() {
+        return parts;
+    }
+
+    @Override
+    void columns(final List<ColumnInfo> columns) throws IOException {
+        if (part == null) {
+            part = new ParquetFormat(partPath(resultsPath, parts));
+        }
+        part.columns(columns);
+    }
+
+    @Override
+    void batch(final RowBatch batch) throws IOException {
+        part.batch(batch);
+    }
+
+    @Override
+    void flush() throws IOException {
+        if (part != null) {
+            try {
+                part.complete();
+            }
+            finally {
+                part.close();
+                part = null;
+            }
+            parts++;
+        }
+    }
+
+    @Override
+    void complete() throws IOException {
+        flush();
+        List<Path> paths = new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++) {
+            paths.add(partPath(resultsPath, i));
+        }
+        if (!paths.isEmpty()) {
+            UnloadExport.merge(paths, resultsPath);
+        }
+        deleteParts(resultsPath, 0);
+    }
+
+    @Override
+    public void close() {
+        if (part != null) {
+            part.close();
+        }
+    }
+
+    static Path partPath(final Path resultsPath, final int part) {
+        return resultsPath.resolveSibling(resultsPath.getFileName() + String.format(PART, part));
+    }
+
+    /**
+     * Delete part files for the specified results path, starting with the specified part.
+     *
+     * @param resultsPath results path
+     * @param from first part to delete
+     * @throws IOException if an I/O error occurs
+     */
+    static void deleteParts(final Path resultsPath, final int from) throws IOException {
+        Path directory = resultsPath.toAbsolutePath().getParent();
+        String prefix = resultsPath.getFileName() + ".part-";
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, prefix + "*.parquet")) {
+            for (Path path : paths) {
+                String index = path.getFileName().toString().substring(prefix.length()).replace(".parquet", "");
+                try {
+                    if (Integer.parseInt(index) >= from) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+                catch (NumberFormatException e) {
+                    // not a part file
+                }
+            }
+        }
+    }
+}
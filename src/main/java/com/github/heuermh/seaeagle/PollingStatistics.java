@@ -0,0 +1,89 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import software.amazon.awssdk.services.athena.model.QueryExecution;
+
+/**
+ * Polling statistics.
+ */
+final class PollingStatistics {
+    private int polls = 0;
+    private long waitTime = 0L;
+    private long wastedWaitTime = 0L;
+
+
+    /**
+     * Record a poll.
+     */
+    void poll() {
+        polls++;
+    }
+
+    /**
+     * Record the specified wait time.
+     *
+     * @param millis wait time in milliseconds
+     */
+    void waited(final long millis) {
+        waitTime += millis;
+    }
+
+    /**
+     * Record completion of the specified query execution, observed at the specified instant.
+     *
+     * @param queryExecution completed query execution
+     * @param observed instant the completion was observed
+     */
+    void completed(final QueryExecution queryExecution, final Instant observed) {
+        Instant completion = queryExecution.status().completionDateTime();
+        if (completion != null) {
+            // server and client clocks may disagree, never report negative waste
+            wastedWaitTime = Math.max(0L, Duration.between(completion, observed).toMillis());
+        }
+    }
+
+    /**
+     * Return the number of polls.
+     *
+     * @return the number of polls
+     */
+    int polls() {
+        return polls;
+    }
+
+    /**
+     * Return the total wait time between polls, in milliseconds.
+     *
+     * @return the total wait time between polls, in milliseconds
+     */
+    long waitTime() {
+        return waitTime;
+    }
+
+    /**
+     * Return the wait time after the query execution completed but before
+     * completion was observed, in milliseconds.
+     *
+     * @return the wasted wait time, in milliseconds
+     */
+    long wastedWaitTime() {
+        return wastedWaitTime;
+    }
+}
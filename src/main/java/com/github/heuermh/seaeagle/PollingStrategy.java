@@ -0,0 +1,33 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import software.amazon.awssdk.services.athena.model.QueryExecution;
+
+/**
+ * Polling strategy.
+ */
+abstract class PollingStrategy {
+
+    /**
+     * Return the delay in milliseconds before the next poll of the specified query execution.
+     *
+     * @param queryExecution query execution, as of the most recent poll
+     * @param polls number of polls so far
+     * @return the delay in milliseconds before the next poll of the specified query execution
+     */
+    abstract long delay(QueryExecution queryExecution, int polls);
+}
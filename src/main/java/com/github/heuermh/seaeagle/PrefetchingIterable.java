@@ -0,0 +1,155 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Iterable that prefetches elements from another iterable on a background thread.
+ *
+ * <p>
+ * At most <code>depth</code> elements are held in memory ahead of the consumer,
+ * and elements are returned in the same order as the source iterable. Runtime
+ * exceptions and errors thrown by the source iterable are rethrown to the consumer.
+ * </p>
+ *
+ * @param <T> element type
+ */
+final class PrefetchingIterable<T> implements Iterable<T>, AutoCloseable {
+    private final Iterable<T> source;
+    private final BlockingQueue<Object> queue;
+    private Thread fetcher;
+    private volatile boolean closed = false;
+
+    /** End of elements marker. */
+    private static final Object END = new Object();
+
+
+    /**
+     * Create a new prefetching iterable.
+     *
+     * @param source source iterable, must not be null
+     * @param depth prefetch depth, must be greater than zero
+     */
+    PrefetchingIterable(final Iterable<T> source, final int depth) {
+        checkNotNull(source);
+        checkArgument(depth > 0, "depth must be greater than zero");
+        this.source = source;
+        this.queue = new ArrayBlockingQueue<>(depth);
+    }
+
+
+    /**
+     * Fetch elements from the source iterable until exhausted or closed.
+     */
+    private void fetch() {
+        try {
+            for (T t : source) {
+                if (closed) {
+                    return;
+                }
+                queue.put(t);
+            }
+            queue.put(END);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (RuntimeException | Error e) {
+            // signal the consumer before this thread dies, else it would wait forever
+            try {
+                queue.put(new Failure(e));
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public synchronized Iterator<T> iterator() {
+        if (fetcher != null) {
+            throw new IllegalStateException("prefetching iterable may only be iterated once");
+        }
+        fetcher = new Thread(this::fetch, "se-prefetch");
+        fetcher.setDaemon(true);
+        fetcher.start();
+
+        return new Iterator<T>() {
+            private Object next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = queue.take();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("interrupted waiting for prefetched element", e);
+                    }
+                }
+                if (next instanceof Failure) {
+                    Throwable t = ((Failure) next).throwable;
+                    next = END;
+                    if (t instanceof Error) {
+                        throw (Error) t;
+                    }
+                    throw (RuntimeException) t;
+                }
+                return next != END;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                T t = (T) next;
+                next = null;
+                return t;
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (fetcher != null) {
+            fetcher.interrupt();
+        }
+        queue.clear();
+    }
+
+    /**
+     * Failure in the source iterable.
+     */
+    private static final class Failure {
+        private final Throwable throwable;
+
+        Failure(final Throwable throwable) {
+            this.throwable = throwable;
+        }
+    }
+}
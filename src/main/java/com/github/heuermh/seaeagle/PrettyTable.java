@@ -144,8 +144,8 @@ class PrettyTable {
 
     protected List<String> formatRows() {
         List<String> result = new ArrayList<>();
-        for (List<String> row : rows) {
-            result.addAll(formatRow(row, rowHeights.get(rows.indexOf(row)), columnAlignments));
+        for (int i = 0, size = rows.size(); i < size; i++) {
+            result.addAll(formatRow(rows.get(i), rowHeights.get(i), columnAlignments));
         }
         return result;
     }
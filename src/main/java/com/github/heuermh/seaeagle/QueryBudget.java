@@ -0,0 +1,105 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.services.athena.model.QueryExecution;
+import software.amazon.awssdk.services.athena.model.QueryExecutionStatistics;
+
+/**
+ * Runtime budget for data scanned and engine execution time of a query execution.
+ */
+final class QueryBudget {
+    private final long maxScanBytes;
+    private final long maxEngineTime;
+    private final double warningFraction;
+    private boolean warnedScanBytes = false;
+    private boolean warnedEngineTime = false;
+
+    /** Default fraction of a budget at which to log a warning. */
+    static final double DEFAULT_WARNING_FRACTION = 0.8d;
+
+    static final Logger logger = LoggerFactory.getLogger(QueryBudget.class);
+
+
+    /**
+     * Create a new query budget.
+     *
+     * @param maxScanBytes maximum data scanned in bytes, or <code>0</code> for no limit
+     * @param maxEngineTime maximum engine execution time in milliseconds, or <code>0</code> for no limit
+     * @param warningFraction fraction of a budget at which to log a warning, must be between zero and one
+     */
+    QueryBudget(final long maxScanBytes, final long maxEngineTime, final double warningFraction) {
+        checkArgument(maxScanBytes >= 0L, "maxScanBytes must be at least zero");
+        checkArgument(maxEngineTime >= 0L, "maxEngineTime must be at least zero");
+        checkArgument(warningFraction > 0.0d && warningFraction <= 1.0d, "warningFraction must be greater than zero and less than or equal to one");
+        this.maxScanBytes = maxScanBytes;
+        this.maxEngineTime = maxEngineTime;
+        this.warningFraction = warningFraction;
+    }
+
+
+    /**
+     * Return true if this budget has any limits.
+     *
+     * @return true if this budget has any limits
+     */
+    boolean isLimited() {
+        return maxScanBytes > 0L || maxEngineTime > 0L;
+    }
+
+    /**
+     * Check the statistics of the specified query execution against this budget.
+     *
+     * @param queryExecution query execution to check
+     * @throws BudgetExceededException if the query execution has exceeded this budget
+     */
+    void check(final QueryExecution queryExecution) throws BudgetExceededException {
+        QueryExecutionStatistics statistics = queryExecution == null ? null : queryExecution.statistics();
+        if (statistics == null) {
+            return;
+        }
+        String queryExecutionId = queryExecution.queryExecutionId();
+        Long dataScannedInBytes = statistics.dataScannedInBytes();
+        if (maxScanBytes > 0L && dataScannedInBytes != null) {
+            if (dataScannedInBytes > maxScanBytes) {
+                throw new BudgetExceededException("query execution for ID " + queryExecutionId + " scanned " + dataScannedInBytes
+                                                  + " bytes, exceeding budget of " + maxScanBytes + " bytes");
+            }
+            if (!warnedScanBytes && dataScannedInBytes >= maxScanBytes * warningFraction) {
+                logger.warn("Query execution for ID {} has scanned {} bytes, over {}% of budget of {} bytes",
+                            queryExecutionId, dataScannedInBytes, Math.round(warningFraction * 100.0d), maxScanBytes);
+                warnedScanBytes = true;
+            }
+        }
+        Long engineExecutionTime = statistics.engineExecutionTimeInMillis();
+        if (maxEngineTime > 0L && engineExecutionTime != null) {
+            if (engineExecutionTime > maxEngineTime) {
+                throw new BudgetExceededException("query execution for ID " + queryExecutionId + " ran for " + engineExecutionTime
+                                                  + " ms of engine time, exceeding budget of " + maxEngineTime + " ms");
+            }
+            if (!warnedEngineTime && engineExecutionTime >= maxEngineTime * warningFraction) {
+                logger.warn("Query execution for ID {} has run for {} ms of engine time, over {}% of budget of {} ms",
+                            queryExecutionId, engineExecutionTime, Math.round(warningFraction * 100.0d), maxEngineTime);
+                warnedEngineTime = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.core.exception.SdkException;
+
+import software.amazon.awssdk.services.athena.AthenaClient;
+
+import software.amazon.awssdk.services.athena.model.BatchGetQueryExecutionRequest;
+import software.amazon.awssdk.services.athena.model.BatchGetQueryExecutionResponse;
+import software.amazon.awssdk.services.athena.model.QueryExecution;
+import software.amazon.awssdk.services.athena.model.QueryExecutionState;
+
+/**
+ * Shared query execution status poller.
+ *
+ * <p>
+ * Tracks every outstanding query execution ID and polls their status in batches of up to
+ * {@link #MAX_BATCH_SIZE} with a single <code>BatchGetQueryExecution</code> call, waking
+ * each waiter when its query execution reaches a final state.
+ * </p>
+ */
+final class QueryExecutionPoller implements AutoCloseable {
+    private final AthenaClient athenaClient;
+    private final long interval;
+    private final Map<String, Waiter> waiters = new ConcurrentHashMap<>();
+    private final Thread thread;
+    private volatile boolean closed = false;
+
+    /** Maximum number of query execution IDs per <code>BatchGetQueryExecution</code> call. */
+    static final int MAX_BATCH_SIZE = 50;
+
+    static final Logger logger = LoggerFactory.getLogger(QueryExecutionPoller.class);
+
+
+    /**
+     * Create a new query execution poller.
+     *
+     * @param athenaClient Athena client, must not be null
+     * @param interval polling interval in milliseconds, must be greater than zero
+     */
+    QueryExecutionPoller(final AthenaClient athenaClient, final long interval) {
+        checkNotNull(athenaClient);
+        checkArgument(interval > 0L, "interval must be greater than zero");
+        this.athenaClient = athenaClient;
+        this.interval = interval;
+
+        thread = new Thread(this::run, "se-poller");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Wait for the specified query execution to complete, checking the specified budget on every poll.
+     *
+     * @param queryExecutionId query execution ID, must not be null
+     * @param budget budget to check on every poll, if any
+     * @return the completed query execution
+     * @throws InterruptedException if interrupted while waiting
+     * @throws BudgetExceededException if the query execution exceeded the specified budget
+     * @throws CanceledException if the query execution was canceled
+     * @throws FailedException if the query execution failed
+     */
+    QueryExecution await(final String queryExecutionId, final QueryBudget budget)
+        throws InterruptedException, BudgetExceededException, CanceledException, FailedException {
+
+        checkNotNull(queryExecutionId);
+        Waiter waiter = waiters.computeIfAbsent(queryExecutionId, id -> new Waiter(budget));
+        try {
+            QueryExecution queryExecution = waiter.future.get();
+            switch (queryExecution.status().state()) {
+                case CANCELLED:
+                    throw new CanceledException();
+                case FAILED:
+                    throw new FailedException(queryExecution.status().stateChangeReason());
+                default:
+                    return queryExecution;
+            }
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof BudgetExceededException) {
+                throw (BudgetExceededException) e.getCause();
+            }
+            throw new FailedException("could not poll query execution ID " + queryExecutionId + ": " + e.getCause().getMessage());
+        }
+        finally {
+            waiters.remove(queryExecutionId);
+        }
+    }
+
+    /**
+     * Poll outstanding query executions until closed.
+     */
+    private void run() {
+        while (!closed) {
+            List<String> ids = new ArrayList<>(waiters.keySet());
+            for (int i = 0, size = ids.size(); i < size; i += MAX_BATCH_SIZE) {
+                poll(ids.subList(i, Math.min(size, i + MAX_BATCH_SIZE)));
+            }
+            try {
+                Thread.sleep(interval);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Poll the specified batch of query execution IDs.
+     */
+    private void poll(final List<String> ids) {
+        BatchGetQueryExecutionResponse response;
+        try {
+            response = athenaClient.batchGetQueryExecution(BatchGetQueryExecutionRequest.builder()
+                .queryExecutionIds(ids)
+                .build());
+        }
+        catch (SdkException e) {
+            // try again next interval
+            logger.warn("Could not poll {} query executions, caught exception", ids.size(), e);
+            return;
+        }
+        for (QueryExecution queryExecution : response.queryExecutions()) {
+            Waiter waiter = waiters.get(queryExecution.queryExecutionId());
+            if (waiter == null) {
+                continue;
+            }
+            QueryExecutionState state = queryExecution.status().state();
+            if (state != waiter.state) {
+                logger.info("Query execution for ID {} now {}", queryExecution.queryExecutionId(), state);
+                waiter.state = state;
+            }
+            switch (state) {
+                case SUCCEEDED:
+                case FAILED:
+                case CANCELLED:
+                    waiter.future.complete(queryExecution);
+                    break;
+                default:
+                    if (waiter.budget != null) {
+                        try {
+                            waiter.budget.check(queryExecution);
+                        }
+                        catch (BudgetExceededException e) {
+                            waiter.future.completeExceptionally(e);
+                        }
+                    }
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        thread.interrupt();
+        for (Waiter waiter : waiters.values()) {
+            waiter.future.completeExceptionally(new IllegalStateException("poller closed"));
+        }
+    }
+
+    /**
+     * Waiter for a query execution.
+     */
+    private static final class Waiter {
+        private final QueryBudget budget;
+        private final CompletableFuture<QueryExecution> future = new CompletableFuture<>();
+        private volatile QueryExecutionState state;
+
+        Waiter(final QueryBudget budget) {
+            this.budget = budget;
+        }
+    }
+}
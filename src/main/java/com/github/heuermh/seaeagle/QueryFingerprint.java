@@ -0,0 +1,173 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.charset.StandardCharsets;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.List;
+
+/**
+ * Query fingerprint, a SHA-256 digest of normalized SQL, execution parameters,
+ * catalog, database, and workgroup.
+ */
+final class QueryFingerprint {
+    private final String value;
+
+
+    /**
+     * Create a new query fingerprint with the specified value.
+     *
+     * @param value value, must not be null
+     */
+    private QueryFingerprint(final String value) {
+        this.value = value;
+    }
+
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof QueryFingerprint)) {
+            return false;
+        }
+        return value.equals(((QueryFingerprint) o).value);
+    }
+
+    @Override
+    public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+
+
+    /**
+     * Return a query fingerprint with the specified value.
+     *
+     * @param value hex-encoded SHA-256 digest, must not be null
+     * @return a query fingerprint with the specified value
+     * @throws IllegalArgumentException if value is not a hex-encoded SHA-256 digest
+     */
+    static QueryFingerprint valueOf(final String value) {
+        checkNotNull(value);
+        if (!value.matches("[0-9a-f]{64}")) {
+            throw new IllegalArgumentException("invalid query fingerprint " + value);
+        }
+        return new QueryFingerprint(value);
+    }
+
+    /**
+     * Return a query fingerprint for the specified query and query execution context.
+     *
+     * @param query SQL query, must not be null
+     * @param executionParameters execution parameters, if any
+     * @param catalog catalog, if any
+     * @param database database, if any
+     * @param workgroup workgroup, if any
+     * @return a query fingerprint for the specified query and query execution context
+     */
+    static QueryFingerprint of(final String query,
+                               final List<String> executionParameters,
+                               final String catalog,
+                               final String database,
+                               final String workgroup) {
+        checkNotNull(query);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, normalize(query));
+            update(digest, Integer.toString(executionParameters == null ? 0 : executionParameters.size()));
+            if (executionParameters != null) {
+                for (String executionParameter : executionParameters) {
+                    update(digest, executionParameter);
+                }
+            }
+            update(digest, catalog);
+            update(digest, database);
+            update(digest, workgroup);
+
+            StringBuilder sb = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return new QueryFingerprint(sb.toString());
+        }
+        catch (NoSuchAlgorithmException e) {
+            // every JVM is required to support SHA-256
+            throw new IllegalStateException("SHA-256 not supported", e);
+        }
+    }
+
+    /**
+     * Return the specified SQL query normalized, with runs of whitespace outside
+     * of quoted literals and identifiers collapsed to a single space, and leading
+     * and trailing whitespace and trailing semicolons removed.
+     *
+     * @param query SQL query to normalize, must not be null
+     * @return the specified SQL query normalized
+     */
+    static String normalize(final String query) {
+        checkNotNull(query);
+        StringBuilder sb = new StringBuilder(query.length());
+        char quote = 0;
+        boolean whitespace = false;
+        for (int i = 0, length = query.length(); i < length; i++) {
+            char c = query.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                whitespace = true;
+                continue;
+            }
+            if (whitespace && sb.length() > 0) {
+                sb.append(' ');
+            }
+            whitespace = false;
+            if (quote == 0 && (c == '\'' || c == '"')) {
+                quote = c;
+            }
+            else if (c == quote) {
+                // doubled quotes escape, toggling twice leaves the literal open
+                quote = 0;
+            }
+            sb.append(c);
+        }
+        while (sb.length() > 0 && sb.charAt(sb.length() - 1) == ';') {
+            sb.setLength(sb.length() - 1);
+            while (sb.length() > 0 && Character.isWhitespace(sb.charAt(sb.length() - 1))) {
+                sb.setLength(sb.length() - 1);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void update(final MessageDigest digest, final String value) {
+        // length prefix keeps adjacent values from running together
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) (value == null ? 0 : 1));
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) ':');
+        digest.update(bytes);
+    }
+}
@@ -0,0 +1,488 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.nio.file.attribute.PosixFilePermissions;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Structured query history, recording the query fingerprint, query execution ID, workgroup,
+ * final state, bytes scanned, and wall time of each query execution.
+ *
+ * <p>
+ * Entries are appended as escaped tab-delimited values to a history file in the state directory,
+ * one record per entry, and the history file is rotated once it grows past its maximum size.
+ * </p>
+ *
+ * <p>
+ * Each history file and rotated history file has a sidecar index file of query fingerprints and
+ * record offsets, so lookups by query fingerprint read only the matching records.  Index files are
+ * brought up to date by lookups, indexing any records appended since, and are rotated along with
+ * their history files, so entries in rotated history files are still found.  Searches by text
+ * scan the history file and all rotated history files.
+ * </p>
+ */
+final class QueryHistory {
+    private final Path path;
+    private final RecordFile recordFile;
+
+    static final String DEFAULT_FILE_NAME = "history.tsv";
+
+    /** Index file suffix. */
+    static final String INDEX_SUFFIX = ".idx";
+
+    static final Logger logger = LoggerFactory.getLogger(QueryHistory.class);
+
+
+    /**
+     * Create a new query history.
+     *
+     * @param path history file path, must not be null
+     */
+    QueryHistory(final Path path) {
+        checkNotNull(path);
+        this.path = path;
+        this.recordFile = new RecordFile(path, path, RecordFile.DEFAULT_MAX_SIZE, RecordFile.DEFAULT_KEEP, List.of(INDEX_SUFFIX));
+    }
+
+
+    /**
+     * Append the specified entry to this query history.
+     *
+     * @param entry entry to append, must not be null
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized void append(final Entry entry) throws IOException {
+        checkNotNull(entry);
+        if (!Files.exists(path)) {
+            // queries may be sensitive
+            Files.createDirectories(path.getParent(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            try {
+                Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            }
+            catch (FileAlreadyExistsException e) {
+                // created concurrently by another process
+            }
+        }
+        recordFile.append(entry.toLine());
+        if (recordFile.isFull()) {
+            recordFile.rotate();
+        }
+    }
+
+    /**
+     * Return all the entries in this query history, including rotated entries, oldest first.
+     *
+     * @return all the entries in this query history, oldest first
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized List<Entry> entries() throws IOException {
+        if (recordFile.paths().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return recordFile.locked(() -> {
+                List<Entry> entries = new ArrayList<>();
+                for (Path file : recordFile.paths()) {
+                    for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                        Entry entry = Entry.fromLine(line);
+                        if (entry == null) {
+                            logger.warn("Skipping invalid query history entry in {}", file);
+                        }
+                        else {
+                            entries.add(entry);
+                        }
+                    }
+                }
+                return Collections.unmodifiableList(entries);
+            });
+    }
+
+    /**
+     * Return the entries in this query history for the specified query fingerprint, oldest first.
+     *
+     * @param fingerprint query fingerprint, must not be null
+     * @return the entries in this query history for the specified query fingerprint, oldest first
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized List<Entry> find(final QueryFingerprint fingerprint) throws IOException {
+        checkNotNull(fingerprint);
+        if (recordFile.paths().isEmpty()) {
+            return Collections.emptyList();
+        }
+        return recordFile.locked(() -> {
+                List<Entry> found = new ArrayList<>();
+                for (Path file : recordFile.paths()) {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        List<Entry> entries = find(fingerprint, file, channel);
+                        if (entries == null) {
+                            logger.warn("Query history index for {} out of date, rebuilding it", file);
+                            Files.deleteIfExists(RecordFile.sidecar(file, INDEX_SUFFIX));
+                            entries = find(fingerprint, file, channel);
+                        }
+                        if (entries != null) {
+                            found.addAll(entries);
+                        }
+                    }
+                    catch (NoSuchFileException e) {
+                        // removed by rotation in another process
+                    }
+                }
+                return Collections.unmodifiableList(found);
+            });
+    }
+
+    /**
+     * Return the entries in this query history whose query contains the specified text, ignoring case,
+     * or whose query fingerprint or query execution ID starts with the specified text, oldest first.
+     *
+     * @param text text to search for, must not be null
+     * @return the entries in this query history matching the specified text, oldest first
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized List<Entry> search(final String text) throws IOException {
+        checkNotNull(text);
+        String lowerCase = text.toLowerCase(Locale.ROOT);
+        List<Entry> matches = new ArrayList<>();
+        for (Entry entry : entries()) {
+            if (entry.fingerprint().toString().startsWith(lowerCase)
+                || entry.queryExecutionId().startsWith(text)
+                || entry.query().toLowerCase(Locale.ROOT).contains(lowerCase)) {
+                matches.add(entry);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Return the most recent entry in this query history for the specified query fingerprint
+     * that succeeded no longer ago than the specified maximum age, if any.
+     *
+     * @param fingerprint query fingerprint, must not be null
+     * @param maxAge maximum age, must not be null
+     * @return the most recent entry for the specified query fingerprint that succeeded
+     *    no longer ago than the specified maximum age, or <code>null</code> if none exists
+     * @throws IOException if an I/O error occurs
+     */
+    synchronized Entry lastSucceeded(final QueryFingerprint fingerprint, final Duration maxAge) throws IOException {
+        checkNotNull(maxAge);
+        Instant since = Instant.now().minus(maxAge);
+        List<Entry> found = find(fingerprint);
+        for (int i = found.size() - 1; i >= 0; i--) {
+            Entry entry = found.get(i);
+            if (entry.timestamp().isBefore(since)) {
+                break;
+            }
+            if ("SUCCEEDED".equals(entry.state())) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the entries in the specified history file for the specified query fingerprint, oldest first,
+     * read at the offsets in its index.  Must be called while holding the lock on the history file.
+     *
+     * @param fingerprint query fingerprint
+     * @param file history file or rotated history file
+     * @param channel channel open for reading the history file
+     * @return the entries in the specified history file for the specified query fingerprint, oldest first,
+     *    or <code>null</code> if the index does not match the history file
+     * @throws IOException if an I/O error occurs
+     */
+    private List<Entry> find(final QueryFingerprint fingerprint, final Path file, final FileChannel channel) throws IOException {
+        String key = fingerprint.toString();
+        List<Entry> found = new ArrayList<>();
+        for (IndexEntry indexEntry : index(file, channel)) {
+            if (indexEntry.fingerprint.equals(key)) {
+                Entry entry = Entry.fromLine(readLine(channel, indexEntry.offset, indexEntry.length));
+                if (entry == null || !entry.fingerprint().equals(fingerprint)) {
+                    return null;
+                }
+                found.add(entry);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Return the index of the specified history file, first indexing any records appended since it was
+     * last brought up to date.  Must be called while holding the lock on the history file.
+     *
+     * @param file history file or rotated history file
+     * @param channel channel open for reading the history file
+     * @return the index of the specified history file
+     * @throws IOException if an I/O error occurs
+     */
+    private List<IndexEntry> index(final Path file, final FileChannel channel) throws IOException {
+        Path indexPath = RecordFile.sidecar(file, INDEX_SUFFIX);
+        List<IndexEntry> index = new ArrayList<>();
+        long indexed = 0L;
+        try {
+            for (String line : Files.readAllLines(indexPath, StandardCharsets.UTF_8)) {
+                IndexEntry indexEntry = IndexEntry.fromLine(line);
+                if (indexEntry == null || indexEntry.offset != indexed) {
+                    index.clear();
+                    indexed = 0L;
+                    break;
+                }
+                index.add(indexEntry);
+                indexed = indexEntry.offset + indexEntry.length + 1L;
+            }
+        }
+        catch (NoSuchFileException e) {
+            // not yet indexed
+        }
+
+        long size = channel.size();
+        if (indexed > size) {
+            // history file replaced since, e.g. by compaction
+            index.clear();
+            indexed = 0L;
+        }
+        if (indexed == size) {
+            return index;
+        }
+        boolean rebuild = indexed == 0L;
+
+        // index complete records appended since
+        ByteBuffer buffer = ByteBuffer.allocate((int) (size - indexed));
+        while (buffer.hasRemaining() && channel.read(buffer, indexed + buffer.position()) >= 0) {
+            // read fully
+        }
+        byte[] bytes = buffer.array();
+        StringBuilder sb = new StringBuilder();
+        int start = 0;
+        for (int i = 0, length = buffer.position(); i < length; i++) {
+            if (bytes[i] == '\n') {
+                Entry entry = Entry.fromLine(new String(bytes, start, i - start, StandardCharsets.UTF_8));
+                IndexEntry indexEntry = new IndexEntry(entry == null ? "-" : entry.fingerprint().toString(), indexed + start, i - start);
+                index.add(indexEntry);
+                sb.append(indexEntry.toLine()).append('\n');
+                start = i + 1;
+            }
+        }
+        if (sb.length() > 0) {
+            byte[] lines = sb.toString().getBytes(StandardCharsets.UTF_8);
+            if (rebuild) {
+                Files.write(indexPath, lines);
+            }
+            else {
+                Files.write(indexPath, lines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            Files.setPosixFilePermissions(indexPath, PosixFilePermissions.fromString("rw-------"));
+        }
+        return index;
+    }
+
+    private static String readLine(final FileChannel channel, final long offset, final int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0) {
+            // read fully
+        }
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Query history index entry, the query fingerprint, offset, and length in bytes of a record
+     * in a history file.
+     */
+    private static final class IndexEntry {
+        private final String fingerprint;
+        private final long offset;
+        private final int length;
+
+
+        IndexEntry(final String fingerprint, final long offset, final int length) {
+            this.fingerprint = fingerprint;
+            this.offset = offset;
+            this.length = length;
+        }
+
+
+        String toLine() {
+            return fingerprint + "\t" + offset + "\t" + length;
+        }
+
+        static IndexEntry fromLine(final String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 3) {
+                return null;
+            }
+            try {
+                return new IndexEntry(fields[0], Long.parseLong(fields[1]), Integer.parseInt(fields[2]));
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+
+    /**
+     * Query history entry.
+     */
+    static final class Entry {
+        private final Instant timestamp;
+        private final QueryFingerprint fingerprint;
+        private final String queryExecutionId;
+        private final String workgroup;
+        private final String state;
+        private final Long dataScannedInBytes;
+        private final long wallTime;
+        private final String query;
+        static final int FIELDS = 8;
+
+
+        /**
+         * Create a new query history entry.
+         *
+         * @param timestamp timestamp, must not be null
+         * @param fingerprint query fingerprint, must not be null
+         * @param queryExecutionId query execution ID, must not be null
+         * @param workgroup workgroup, if any
+         * @param state final state, must not be null
+         * @param dataScannedInBytes data scanned in bytes, if any
+         * @param wallTime wall time in milliseconds, must be at least zero
+         * @param query SQL query, must not be null
+         */
+        Entry(final Instant timestamp,
+              final QueryFingerprint fingerprint,
+              final String queryExecutionId,
+              final String workgroup,
+              final String state,
+              final Long dataScannedInBytes,
+              final long wallTime,
+              final String query) {
+
+            checkNotNull(timestamp);
+            checkNotNull(fingerprint);
+            checkNotNull(queryExecutionId);
+            checkNotNull(state);
+            checkArgument(wallTime >= 0L, "wallTime must be at least zero");
+            checkNotNull(query);
+            this.timestamp = timestamp;
+            this.fingerprint = fingerprint;
+            this.queryExecutionId = queryExecutionId;
+            this.workgroup = workgroup;
+            this.state = state;
+            this.dataScannedInBytes = dataScannedInBytes;
+            this.wallTime = wallTime;
+            this.query = query;
+        }
+
+
+        Instant timestamp() {
+            return timestamp;
+        }
+
+        QueryFingerprint fingerprint() {
+            return fingerprint;
+        }
+
+        String queryExecutionId() {
+            return queryExecutionId;
+        }
+
+        String workgroup() {
+            return workgroup;
+        }
+
+        String state() {
+            return state;
+        }
+
+        Long dataScannedInBytes() {
+            return dataScannedInBytes;
+        }
+
+        long wallTime() {
+            return wallTime;
+        }
+
+        String query() {
+            return query;
+        }
+
+        String toLine() {
+            StringBuilder sb = new StringBuilder();
+            ResultCache.escape(sb, timestamp.toString());
+            sb.append('\t');
+            ResultCache.escape(sb, fingerprint.toString());
+            sb.append('\t');
+            ResultCache.escape(sb, queryExecutionId);
+            sb.append('\t');
+            ResultCache.escape(sb, workgroup);
+            sb.append('\t');
+            ResultCache.escape(sb, state);
+            sb.append('\t');
+            ResultCache.escape(sb, dataScannedInBytes == null ? null : dataScannedInBytes.toString());
+            sb.append('\t');
+            sb.append(wallTime);
+            sb.append('\t');
+            ResultCache.escape(sb, query);
+            return sb.toString();
+        }
+
+        static Entry fromLine(final String line) {
+            List<String> fields = ResultCache.split(line);
+            if (fields.size() != FIELDS) {
+                return null;
+            }
+            try {
+                return new Entry(Instant.parse(fields.get(0)),
+                                 QueryFingerprint.valueOf(fields.get(1)),
+                                 fields.get(2),
+                                 fields.get(3),
+                                 fields.get(4),
+                                 fields.get(5) == null ? null : Long.valueOf(fields.get(5)),
+                                 Long.parseLong(fields.get(6)),
+                                 fields.get(7));
+            }
+            catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import software.amazon.awssdk.core.exception.AbortedException;
+
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+/**
+ * Execution interceptor that limits the rate of API calls made by a client.
+ *
+ * <p>
+ * A token is taken before each HTTP attempt, so retried attempts are limited too.
+ * </p>
+ */
+final class RateLimitingInterceptor implements ExecutionInterceptor {
+    private final TokenBucket tokenBucket;
+
+
+    /**
+     * Create a new rate limiting interceptor.
+     *
+     * @param tokenBucket token bucket, must not be null
+     */
+    RateLimitingInterceptor(final TokenBucket tokenBucket) {
+        checkNotNull(tokenBucket);
+        this.tokenBucket = tokenBucket;
+    }
+
+
+    @Override
+    public void beforeTransmission(final Context.BeforeTransmission context, final ExecutionAttributes executionAttributes) {
+        try {
+            tokenBucket.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw AbortedException.create("interrupted waiting for API rate limit", e);
+        }
+    }
+}
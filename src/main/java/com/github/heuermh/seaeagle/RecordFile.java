@@ -0,0 +1,348 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.nio.file.attribute.PosixFilePermissions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * File of newline-delimited records, appended to atomically per record by any number of processes.
+ *
+ * <p>
+ * Appends, rotation, and compaction hold an exclusive lock on a lock file, by default alongside the
+ * record file, so a record is always written whole with a single write and is never interleaved with
+ * records written by other processes.  Once the record file grows past its maximum size it is rotated,
+ * keeping a bounded number of rotated files.  Sidecar files derived from a record file, e.g. an index,
+ * are named after it with a suffix, rotated along with it, and removed when it is compacted.
+ * </p>
+ */
+final class RecordFile {
+    private final Path path;
+    private final Path base;
+    private final Path lockPath;
+    private final long maxSize;
+    private final int keep;
+    private final List<String> sidecars;
+
+    /** Default maximum size before rotation, in bytes. */
+    static final long DEFAULT_MAX_SIZE = 4L * 1024L * 1024L;
+
+    /** Default number of rotated files to keep. */
+    static final int DEFAULT_KEEP = 2;
+
+    /** Options for opening the lock file, created owner-only if missing. */
+    private static final Set<StandardOpenOption> LOCK_OPTIONS = EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+
+
+    /**
+     * Create a new record file.
+     *
+     * @param path path, must not be null
+     * @param maxSize maximum size before rotation, in bytes, must be greater than zero
+     * @param keep number of rotated files to keep, must be at least zero
+     */
+    RecordFile(final Path path, final long maxSize, final int keep) {
+        this(path, path, maxSize, keep);
+    }
+
+    /**
+     * Create a new record file with its lock file, temporary files, and rotated files named after
+     * the specified base path, e.g. in another directory.
+     *
+     * @param path path, must not be null
+     * @param base base path for the lock file, temporary files, and rotated files, must not be null
+     * @param maxSize maximum size before rotation, in bytes, must be greater than zero
+     * @param keep number of rotated files to keep, must be at least zero
+     */
+    RecordFile(final Path path, final Path base, final long maxSize, final int keep) {
+        this(path, base, maxSize, keep, Collections.emptyList());
+    }
+
+    /**
+     * Create a new record file with sidecar files named after it with the specified suffixes.
+     *
+     * @param path path, must not be null
+     * @param base base path for the lock file, temporary files, and rotated files, must not be null
+     * @param maxSize maximum size before rotation, in bytes, must be greater than zero
+     * @param keep number of rotated files to keep, must be at least zero
+     * @param sidecars list of sidecar file suffixes, must not be null
+     */
+    RecordFile(final Path path, final Path base, final long maxSize, final int keep, final List<String> sidecars) {
+        checkNotNull(path);
+        checkNotNull(base);
+        checkArgument(maxSize > 0L, "maxSize must be greater than zero");
+        checkArgument(keep >= 0, "keep must be at least zero");
+        checkNotNull(sidecars);
+        this.path = path;
+        this.base = base;
+        this.lockPath = base.resolveSibling(base.getFileName() + ".lock");
+        this.maxSize = maxSize;
+        this.keep = keep;
+        this.sidecars = List.copyOf(sidecars);
+    }
+
+
+    /**
+     * Return the path to this record file.
+     *
+     * @return the path to this record file
+     */
+    Path path() {
+        return path;
+    }
+
+    /**
+     * Return the paths to this record file and its rotated files that exist, oldest first.
+     *
+     * @return the paths to this record file and its rotated files that exist, oldest first
+     */
+    List<Path> paths() {
+        List<Path> paths = new ArrayList<>(keep + 1);
+        for (int i = keep; i > 0; i--) {
+            if (Files.exists(rotated(i))) {
+                paths.add(rotated(i));
+            }
+        }
+        if (Files.exists(path)) {
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    /**
+     * Return the path to the sidecar file with the specified suffix for the specified record file
+     * or rotated file.
+     *
+     * @param path record file or rotated file, must not be null
+     * @param suffix sidecar file suffix, must not be null
+     * @return the path to the sidecar file with the specified suffix for the specified record file
+     */
+    static Path sidecar(final Path path, final String suffix) {
+        checkNotNull(path);
+        checkNotNull(suffix);
+        return path.resolveSibling(path.getFileName() + suffix);
+    }
+
+    /**
+     * Return true if this record file has grown past its maximum size.
+     *
+     * @return true if this record file has grown past its maximum size
+     * @throws IOException if an I/O error occurs
+     */
+    boolean isFull() throws IOException {
+        try {
+            return Files.size(path) > maxSize;
+        }
+        catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Append the specified record, which must not contain line separators, to this record file.
+     *
+     * @param record record to append, must not be null
+     * @throws IOException if an I/O error occurs
+     */
+    void append(final String record) throws IOException {
+        checkNotNull(record);
+        checkArgument(record.indexOf('\n') < 0 && record.indexOf('\r') < 0, "record must not contain line separators");
+        ByteBuffer buffer = ByteBuffer.wrap((record + "\n").getBytes(StandardCharsets.UTF_8));
+        try (FileChannel lockChannel = openLock(); FileLock lock = lockChannel.lock()) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    /**
+     * Call the specified call while holding the exclusive lock on this record file, so that
+     * no records are appended and no files are rotated or compacted until it returns.
+     *
+     * @param <T> return type
+     * @param call call, must not be null
+     * @return the value returned by the specified call
+     * @throws IOException if an I/O error occurs
+     */
+    <T> T locked(final Locked<T> call) throws IOException {
+        checkNotNull(call);
+        try (FileChannel lockChannel = openLock(); FileLock lock = lockChannel.lock()) {
+            return call.call();
+        }
+    }
+
+    /**
+     * Read all the records in this record file, oldest first.
+     *
+     * @return all the records in this record file, oldest first
+     * @throws IOException if an I/O error occurs
+     */
+    List<String> read() throws IOException {
+        List<String> records = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                records.add(line);
+            }
+        }
+        catch (NoSuchFileException e) {
+            // empty
+        }
+        return records;
+    }
+
+    /**
+     * Rewrite this record file with the records returned by the specified function, then rotate
+     * this record file if it has still grown past half its maximum size.
+     *
+     * @param compaction compaction function, must not be null
+     * @return the number of records removed by compaction
+     * @throws IOException if an I/O error occurs
+     */
+    int compact(final UnaryOperator<List<String>> compaction) throws IOException {
+        checkNotNull(compaction);
+        try (FileChannel lockChannel = openLock(); FileLock lock = lockChannel.lock()) {
+            List<String> records = read();
+            List<String> compacted = compaction.apply(records);
+
+            // write and rename, so an interrupted compaction never loses records
+            Path temp = base.resolveSibling(base.getFileName() + "." + UUID.randomUUID());
+            Files.write(temp, compacted, StandardCharsets.UTF_8);
+            Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+            move(temp, path);
+            for (String suffix : sidecars) {
+                Files.deleteIfExists(sidecar(path, suffix));
+            }
+
+            if (Files.size(path) > maxSize / 2L) {
+                rotateLocked();
+            }
+            return records.size() - compacted.size();
+        }
+    }
+
+    /**
+     * Rotate this record file if it has grown past its maximum size.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void rotate() throws IOException {
+        try (FileChannel lockChannel = openLock(); FileLock lock = lockChannel.lock()) {
+            if (isFull()) {
+                rotateLocked();
+            }
+        }
+    }
+
+    private void rotateLocked() throws IOException {
+        if (keep == 0) {
+            delete(path);
+            return;
+        }
+        delete(rotated(keep));
+        for (int i = keep - 1; i > 0; i--) {
+            if (Files.exists(rotated(i))) {
+                moveWithSidecars(rotated(i), rotated(i + 1));
+            }
+        }
+        if (Files.exists(path)) {
+            moveWithSidecars(path, rotated(1));
+        }
+    }
+
+    private void delete(final Path source) throws IOException {
+        Files.deleteIfExists(source);
+        for (String suffix : sidecars) {
+            Files.deleteIfExists(sidecar(source, suffix));
+        }
+    }
+
+    private void moveWithSidecars(final Path source, final Path target) throws IOException {
+        move(source, target);
+        for (String suffix : sidecars) {
+            if (Files.exists(sidecar(source, suffix))) {
+                move(sidecar(source, suffix), sidecar(target, suffix));
+            }
+            else {
+                Files.deleteIfExists(sidecar(target, suffix));
+            }
+        }
+    }
+
+    private Path rotated(final int i) {
+        return base.resolveSibling(base.getFileName() + "." + i);
+    }
+
+    private FileChannel openLock() throws IOException {
+        return FileChannel.open(lockPath, LOCK_OPTIONS, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    }
+
+    private static void move(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+
+    /**
+     * Call made while holding the exclusive lock on a record file.
+     *
+     * @param <T> return type
+     */
+    interface Locked<T> {
+
+        /**
+         * Call.
+         *
+         * @return a value
+         * @throws IOException if an I/O error occurs
+         */
+        T call() throws IOException;
+    }
+}
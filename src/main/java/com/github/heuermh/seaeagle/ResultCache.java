@@ -0,0 +1,461 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import static org.dishevelled.compress.Readers.reader;
+import static org.dishevelled.compress.Writers.writer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+import software.amazon.awssdk.services.athena.model.Datum;
+import software.amazon.awssdk.services.athena.model.Row;
+
+/**
+ * Local on-disk result cache, keyed by query fingerprint.
+ *
+ * <p>
+ * Each entry is a zstd-compressed file of escaped tab-delimited values, holding
+ * the column metadata and rows exactly as returned by Athena, so that replaying
+ * an entry into any results processor produces the same output as the original query.
+ * Entries expire by last modified time, written once when the entry is created,
+ * and are evicted least recently used first by last access time, updated on every hit.
+ * </p>
+ */
+final class ResultCache {
+    private final Path directory;
+    private final long ttl;
+    private final long maxSize;
+
+    /** Default time to live, in seconds. */
+    static final long DEFAULT_TTL = 3600L;
+
+    /** Default maximum size, in bytes. */
+    static final long DEFAULT_MAX_SIZE = 1024L * 1024L * 1024L;
+
+    /** Number of rows to replay per call to results processor. */
+    static final int REPLAY_BATCH_SIZE = 1000;
+
+    static final String SUFFIX = ".tsv.zst";
+    static final String TEMP_SUFFIX = ".tmp" + SUFFIX;
+    static final String MAGIC = "#se-cache\t1";
+    static final String COLUMN = "#column";
+    static final String ROWS = "#rows";
+    static final String NULL = "\\N";
+
+    static final Logger logger = LoggerFactory.getLogger(ResultCache.class);
+
+
+    /**
+     * Create a new result cache.
+     *
+     * @param directory cache directory, must not be null
+     * @param ttl time to live, in seconds, must be greater than zero
+     * @param maxSize maximum size, in bytes, must be greater than zero
+     */
+    ResultCache(final Path directory, final long ttl, final long maxSize) {
+        checkNotNull(directory);
+        checkArgument(ttl > 0L, "ttl must be greater than zero");
+        checkArgument(maxSize > 0L, "maxSize must be greater than zero");
+        this.directory = directory;
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * Return the path to a fresh cache entry for the specified query fingerprint, if any.
+     *
+     * @param fingerprint query fingerprint, must not be null
+     * @return the path to a fresh cache entry for the specified query fingerprint, or <code>null</code> if none exists
+     * @throws IOException if an I/O error occurs
+     */
+    Path lookup(final QueryFingerprint fingerprint) throws IOException {
+        checkNotNull(fingerprint);
+        Path path = entry(fingerprint);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (isExpired(attributes, System.currentTimeMillis())) {
+            logger.info("Cache entry {} expired, removing", path);
+            Files.deleteIfExists(path);
+            return null;
+        }
+        return path;
+    }
+
+    /**
+     * Replay the cache entry at the specified path into the specified results processor.
+     * Does not call {@link ResultsProcessor#complete()}.
+     *
+     * @param path path to cache entry, must not be null
+     * @param processor results processor, must not be null
+     * @return the number of rows replayed
+     * @throws IOException if an I/O error occurs
+     */
+    long replay(final Path path, final ResultsProcessor processor) throws IOException {
+        checkNotNull(path);
+        checkNotNull(processor);
+
+        // touch last access time for least recently used eviction
+        Files.getFileAttributeView(path, BasicFileAttributeView.class).setTimes(null, FileTime.fromMillis(System.currentTimeMillis()), null);
+
+        long count = 0L;
+        try (BufferedReader reader = reader(path)) {
+            if (!MAGIC.equals(reader.readLine())) {
+                throw new IOException("cache entry " + path + " not in expected format");
+            }
+            List<ColumnInfo> columns = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null && !ROWS.equals(line)) {
+                columns.add(readColumn(split(line)));
+            }
+            if (line == null) {
+                throw new IOException("cache entry " + path + " truncated");
+            }
+            processor.columns(columns);
+
+            // cache entries keep the header row at the start of the first page of results
+            boolean firstPage = true;
+            List<Row> rows = new ArrayList<>(REPLAY_BATCH_SIZE);
+            while ((line = reader.readLine()) != null) {
+                rows.add(readRow(split(line)));
+                if (rows.size() == REPLAY_BATCH_SIZE) {
+                    processor.batch(RowBatch.of(columns, rows, firstPage));
+                    firstPage = false;
+                    count += rows.size();
+                    rows = new ArrayList<>(REPLAY_BATCH_SIZE);
+                    if (processor.isDone()) {
+                        return count;
+                    }
+                }
+            }
+            processor.batch(RowBatch.of(columns, rows, firstPage));
+            count += rows.size();
+        }
+        return count;
+    }
+
+    /**
+     * Remove the cache entry for the specified query fingerprint, if any.
+     *
+     * @param fingerprint query fingerprint, must not be null
+     * @throws IOException if an I/O error occurs
+     */
+    void remove(final QueryFingerprint fingerprint) throws IOException {
+        checkNotNull(fingerprint);
+        Files.deleteIfExists(entry(fingerprint));
+    }
+
+    /**
+     * Return a new results processor that writes results to a cache entry
+     * for the specified query fingerprint while passing them on to the specified
+     * results processor.
+     *
+     * @param fingerprint query fingerprint, must not be null
+     * @param delegate results processor to delegate to, must not be null
+     * @return a new results processor that writes results to a cache entry
+     */
+    ResultsProcessor tee(final QueryFingerprint fingerprint, final ResultsProcessor delegate) {
+        return new CachingResultsProcessor(this, fingerprint, delegate);
+    }
+
+    /**
+     * Create a new temporary cache entry for the specified query fingerprint.
+     *
+     * @param fingerprint query fingerprint
+     * @return a new temporary cache entry for the specified query fingerprint
+     * @throws IOException if an I/O error occurs
+     */
+    Path createTemp(final QueryFingerprint fingerprint) throws IOException {
+        createDirectory();
+        return directory.resolve(fingerprint + "." + UUID.randomUUID() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Commit the specified temporary cache entry for the specified query fingerprint,
+     * then evict expired and least recently used entries.
+     *
+     * @param fingerprint query fingerprint
+     * @param temp temporary cache entry
+     * @throws IOException if an I/O error occurs
+     */
+    void commit(final QueryFingerprint fingerprint, final Path temp) throws IOException {
+        Path path = entry(fingerprint);
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        logger.info("Wrote {} bytes to cache entry {}", Files.size(path), path);
+        evict();
+    }
+
+    /**
+     * Evict expired cache entries, then least recently used cache entries
+     * until the total size is at most the maximum size.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void evict() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<Path> paths = new ArrayList<>();
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path path : entries) {
+                BasicFileAttributes a = Files.readAttributes(path, BasicFileAttributes.class);
+                if (path.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    // left behind by a process that did not finish writing
+                    if (now - a.lastModifiedTime().toMillis() > ttl * 1000L) {
+                        Files.deleteIfExists(path);
+                    }
+                }
+                else if (isExpired(a, now)) {
+                    logger.info("Evicting expired cache entry {}", path);
+                    Files.deleteIfExists(path);
+                }
+                else {
+                    paths.add(path);
+                    attributes.add(a);
+                }
+            }
+        }
+
+        long size = 0L;
+        List<Integer> indices = new ArrayList<>(paths.size());
+        for (int i = 0, n = paths.size(); i < n; i++) {
+            size += attributes.get(i).size();
+            indices.add(i);
+        }
+        indices.sort(Comparator.comparing(i -> attributes.get(i).lastAccessTime()));
+        for (int i : indices) {
+            if (size <= maxSize) {
+                break;
+            }
+            logger.info("Evicting least recently used cache entry {}", paths.get(i));
+            Files.deleteIfExists(paths.get(i));
+            size -= attributes.get(i).size();
+        }
+    }
+
+    private Path entry(final QueryFingerprint fingerprint) {
+        return directory.resolve(fingerprint + SUFFIX);
+    }
+
+    private boolean isExpired(final BasicFileAttributes attributes, final long now) {
+        return now - attributes.lastModifiedTime().toMillis() > ttl * 1000L;
+    }
+
+    private void createDirectory() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            // cached results may be sensitive
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        }
+    }
+
+
+    /**
+     * Write the specified list of columns to the specified writer.
+     *
+     * @param columns list of columns
+     * @param writer writer
+     */
+    static void writeColumns(final List<ColumnInfo> columns, final PrintWriter writer) {
+        writer.println(MAGIC);
+        for (ColumnInfo column : columns) {
+            StringBuilder sb = new StringBuilder(COLUMN);
+            append(sb, column.name());
+            append(sb, column.label());
+            append(sb, column.type());
+            append(sb, column.precision() == null ? null : column.precision().toString());
+            append(sb, column.scale() == null ? null : column.scale().toString());
+            append(sb, column.catalogName());
+            append(sb, column.schemaName());
+            append(sb, column.tableName());
+            append(sb, column.caseSensitive() == null ? null : column.caseSensitive().toString());
+            writer.println(sb);
+        }
+        writer.println(ROWS);
+    }
+
+    /**
+     * Write the rows of the specified batch to the specified writer, starting with the header row, if any.
+     *
+     * @param batch batch
+     * @param writer writer
+     */
+    static void writeBatch(final RowBatch batch, final PrintWriter writer) {
+        int columnCount = batch.columnCount();
+        if (batch.hasHeaderRow()) {
+            writeRow(batch.headerRow(), writer);
+        }
+        String[] values = new String[columnCount];
+        for (int r = 0, size = batch.size(); r < size; r++) {
+            for (int c = 0; c < columnCount; c++) {
+                values[c] = batch.getString(c, r);
+            }
+            writeRow(values, writer);
+        }
+    }
+
+    static void writeRow(final String[] values, final PrintWriter writer) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                sb.append('\t');
+            }
+            escape(sb, values[i]);
+        }
+        // distinguishes a row of one empty value from a row of no values
+        if (values.length == 0) {
+            sb.append(NULL).append(NULL);
+        }
+        writer.println(sb);
+    }
+
+    static ColumnInfo readColumn(final List<String> fields) throws IOException {
+        if (fields.size() != 10 || !COLUMN.equals(fields.get(0))) {
+            throw new IOException("invalid cache entry column " + fields);
+        }
+        return ColumnInfo.builder()
+            .name(fields.get(1))
+            .label(fields.get(2))
+            .type(fields.get(3))
+            .precision(fields.get(4) == null ? null : Integer.valueOf(fields.get(4)))
+            .scale(fields.get(5) == null ? null : Integer.valueOf(fields.get(5)))
+            .catalogName(fields.get(6))
+            .schemaName(fields.get(7))
+            .tableName(fields.get(8))
+            .caseSensitive(fields.get(9) == null ? null : Boolean.valueOf(fields.get(9)))
+            .build();
+    }
+
+    static Row readRow(final List<String> fields) {
+        List<Datum> data = new ArrayList<>(fields.size());
+        for (String field : fields) {
+            data.add(Datum.builder().varCharValue(field).build());
+        }
+        return Row.builder().data(data).build();
+    }
+
+    static List<String> split(final String line) {
+        List<String> fields = new ArrayList<>();
+        if ((NULL + NULL).equals(line)) {
+            return fields;
+        }
+        int start = 0;
+        for (int i = 0, length = line.length(); i <= length; i++) {
+            if (i == length || line.charAt(i) == '\t') {
+                fields.add(unescape(line.substring(start, i)));
+                start = i + 1;
+            }
+        }
+        return fields;
+    }
+
+    private static void append(final StringBuilder sb, final String value) {
+        sb.append('\t');
+        escape(sb, value);
+    }
+
+    static void escape(final StringBuilder sb, final String value) {
+        if (value == null) {
+            sb.append(NULL);
+            return;
+        }
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+
+    static String unescape(final String value) {
+        if (NULL.equals(value)) {
+            return null;
+        }
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < length) {
+                char next = value.charAt(++i);
+                switch (next) {
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    default:
+                        sb.append(next);
+                }
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import software.amazon.awssdk.services.athena.AthenaClient;
+
+import software.amazon.awssdk.services.athena.model.GetQueryResultsRequest;
+import software.amazon.awssdk.services.athena.model.GetQueryResultsResponse;
+
+/**
+ * Pages of query results, fetched one page at a time with retries.
+ *
+ * <p>
+ * Unlike the SDK paginator, a page that fails with a retryable error is fetched again with
+ * the last good <code>NextToken</code>, so paging resumes rather than restarts.
+ * </p>
+ */
+final class ResultPages implements Iterable<GetQueryResultsResponse> {
+    private final AthenaClient athenaClient;
+    private final String queryExecutionId;
+    private final String nextToken;
+    private final RetryPolicy retryPolicy;
+
+
+    /**
+     * Create new result pages.
+     *
+     * @param athenaClient Athena client, must not be null
+     * @param queryExecutionId query execution ID, must not be null
+     * @param nextToken token of the first page to fetch, if any
+     * @param retryPolicy retry policy, must not be null
+     */
+    ResultPages(final AthenaClient athenaClient, final String queryExecutionId, final String nextToken, final RetryPolicy retryPolicy) {
+        checkNotNull(athenaClient);
+        checkNotNull(queryExecutionId);
+        checkNotNull(retryPolicy);
+        this.athenaClient = athenaClient;
+        this.queryExecutionId = queryExecutionId;
+        this.nextToken = nextToken;
+        this.retryPolicy = retryPolicy;
+    }
+
+
+    @Override
+    public Iterator<GetQueryResultsResponse> iterator() {
+        return new Iterator<GetQueryResultsResponse>() {
+            private String token = nextToken;
+            private boolean done = false;
+
+            @Override
+            public boolean hasNext() {
+                return !done;
+            }
+
+            @Override
+            public GetQueryResultsResponse next() {
+                if (done) {
+                    throw new NoSuchElementException();
+                }
+                GetQueryResultsRequest request = GetQueryResultsRequest.builder()
+                    .queryExecutionId(queryExecutionId)
+                    .nextToken(token)
+                    .build();
+                try {
+                    GetQueryResultsResponse response = retryPolicy.execute("get query results for query execution ID " + queryExecutionId,
+                                                                           () -> athenaClient.getQueryResults(request));
+                    token = response.nextToken();
+                    done = (token == null);
+                    return response;
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted getting query results for query execution ID " + queryExecutionId, e);
+                }
+            }
+        };
+    }
+}
@@ -20,7 +20,6 @@ import java.io.IOException;
 import java.util.List;
 
 import software.amazon.awssdk.services.athena.model.ColumnInfo;
-import software.amazon.awssdk.services.athena.model.Row;
 
 /**
  * Results processor.
@@ -38,13 +37,62 @@ abstract class ResultsProcessor implements AutoCloseable {
     }
 
     /**
-     * Notify this results processor of the specified list of columns and list of rows.
+     * Notify this results processor of the specified batch of rows.
      *
-     * @param columns list of columns
-     * @param rows list of rows
-     * @throws IOException if an error occurs     *
+     * @param batch batch of rows
+     * @throws IOException if an error occurs
+     */
+    void batch(final RowBatch batch) throws IOException {
+        // empty
+    }
+
+    /**
+     * Prepare the specified batch of rows for this results processor, e.g. by formatting it, without
+     * writing anything to this results processor's output.
+     *
+     * <p>
+     * May be called concurrently from several threads, for batches in any order, and before this
+     * results processor is notified of the list of columns, so implementations must neither depend on
+     * nor modify the state of this results processor.  Prepared batches are then passed to
+     * {@link #batch(RowBatch, Object)} in their original order.
+     * </p>
+     *
+     * @param batch batch of rows
+     * @return the specified batch of rows prepared for this results processor, or <code>null</code> if not prepared
+     * @throws IOException if an error occurs
+     */
+    Object prepare(final RowBatch batch) throws IOException {
+        return null;
+    }
+
+    /**
+     * Notify this results processor of the specified batch of rows, previously prepared by
+     * {@link #prepare(RowBatch)}.
+     *
+     * @param batch batch of rows
+     * @param prepared the specified batch of rows prepared for this results processor, if any
+     * @throws IOException if an error occurs
+     */
+    void batch(final RowBatch batch, final Object prepared) throws IOException {
+        batch(batch);
+    }
+
+    /**
+     * Return true if this results processor needs no more batches of rows, e.g. because a row limit
+     * has been reached or its output has been closed, in which case paging through results may stop.
+     *
+     * @return true if this results processor needs no more batches of rows
+     */
+    boolean isDone() {
+        return false;
+    }
+
+    /**
+     * Flush results processed so far to this results processor's output, e.g. before a checkpoint.
+     *
+     * @throws IOException if an error occurs
      */
-    void rows(final List<ColumnInfo> columns, final List<Row> rows) throws IOException {
+    void flush() throws IOException {
         // empty
     }
 
@@ -0,0 +1,203 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+import java.net.SocketTimeoutException;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
+
+import software.amazon.awssdk.services.athena.model.TooManyRequestsException;
+
+/**
+ * Retry policy with decorrelated jitter backoff.
+ */
+final class RetryPolicy {
+    private final int maxRetries;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong backoffTime = new AtomicLong();
+
+    /** Default maximum number of retries. */
+    static final int DEFAULT_MAX_RETRIES = 5;
+
+    /** Default base delay, in milliseconds. */
+    static final long DEFAULT_BASE_DELAY = 100L;
+
+    /** Default maximum delay, in milliseconds. */
+    static final long DEFAULT_MAX_DELAY = 20000L;
+
+    static final Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+
+
+    /**
+     * Create a new retry policy with the specified maximum number of retries and default delays.
+     *
+     * @param maxRetries maximum number of retries, must be at least zero
+     */
+    RetryPolicy(final int maxRetries) {
+        this(maxRetries, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * Create a new retry policy.
+     *
+     * @param maxRetries maximum number of retries, must be at least zero
+     * @param baseDelay base delay in milliseconds, must be greater than zero
+     * @param maxDelay maximum delay in milliseconds, must be greater than or equal to <code>baseDelay</code>
+     */
+    RetryPolicy(final int maxRetries, final long baseDelay, final long maxDelay) {
+        checkArgument(maxRetries >= 0, "maxRetries must be at least zero");
+        checkArgument(baseDelay > 0L, "baseDelay must be greater than zero");
+        checkArgument(maxDelay >= baseDelay, "maxDelay must be greater than or equal to baseDelay");
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+
+    /**
+     * Call.
+     *
+     * @param <T> result type
+     */
+    @FunctionalInterface
+    interface Call<T> {
+
+        /**
+         * Call.
+         *
+         * @return result
+         * @throws SdkException if an error occurs
+         */
+        T call() throws SdkException;
+    }
+
+    /**
+     * Execute the specified call, retrying retryable errors with decorrelated jitter backoff.
+     *
+     * @param <T> result type
+     * @param description description of the call, for logging
+     * @param call call to execute, must not be null
+     * @return the result of the specified call
+     * @throws InterruptedException if interrupted while backing off
+     * @throws SdkException if the call fails with an error that is not retryable, or retries are exhausted
+     */
+    <T> T execute(final String description, final Call<T> call) throws InterruptedException, SdkException {
+        checkNotNull(call);
+        long delay = baseDelay;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return call.call();
+            }
+            catch (SdkException e) {
+                if (attempt >= maxRetries || !isRetryable(e)) {
+                    throw e;
+                }
+                // decorrelated jitter, between base delay and three times the previous delay
+                delay = Math.min(maxDelay, ThreadLocalRandom.current().nextLong(baseDelay, Math.max(baseDelay + 1L, delay * 3L)));
+                logger.info("Could not {}, retrying in {} ms (retry {} of {}), caught {}", description, delay, attempt + 1, maxRetries, e.getMessage());
+                retries.incrementAndGet();
+                backoffTime.addAndGet(delay);
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    /**
+     * Return the number of retries so far.
+     *
+     * @return the number of retries so far
+     */
+    long retries() {
+        return retries.get();
+    }
+
+    /**
+     * Return the time spent backing off so far, in milliseconds.
+     *
+     * @return the time spent backing off so far, in milliseconds
+     */
+    long backoffTime() {
+        return backoffTime.get();
+    }
+
+    /**
+     * Return true if the specified exception is retryable.
+     *
+     * @param e exception
+     * @return true if the specified exception is retryable
+     */
+    static boolean isRetryable(final SdkException e) {
+        // honor interrupts, e.g. on shutdown or timeout
+        if (e instanceof AbortedException || Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        if (e instanceof TooManyRequestsException) {
+            return true;
+        }
+        if (e instanceof SdkClientException) {
+            // not e.g. a missing region or credentials
+            return e.retryable() || isTransient(e.getCause());
+        }
+        if (e instanceof AwsServiceException) {
+            AwsServiceException serviceException = (AwsServiceException) e;
+            if (serviceException.isThrottlingException() || serviceException.statusCode() >= 500) {
+                return true;
+            }
+            String errorCode = serviceException.awsErrorDetails() == null ? null : serviceException.awsErrorDetails().errorCode();
+            return "ThrottlingException".equals(errorCode) || "TooManyRequestsException".equals(errorCode);
+        }
+        return e.retryable();
+    }
+
+    /**
+     * Return true if the specified cause of a client exception is transient, i.e. an I/O error,
+     * including connection failures and socket timeouts, or a timeout.
+     *
+     * @param cause cause, if any
+     * @return true if the specified cause of a client exception is transient
+     */
+    static boolean isTransient(final Throwable cause) {
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            if (t instanceof InterruptedIOException && !(t instanceof SocketTimeoutException)) {
+                return false;
+            }
+            if (t instanceof IOException || t instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
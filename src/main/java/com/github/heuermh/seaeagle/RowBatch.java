@@ -0,0 +1,380 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+import software.amazon.awssdk.services.athena.model.Datum;
+import software.amazon.awssdk.services.athena.model.Row;
+
+/**
+ * Typed, columnar batch of rows, built once per page of results.
+ *
+ * <p>
+ * Column types are parsed once per batch, and the header row Athena writes at the start of the first page
+ * of results is detected once per batch.  Values of all columns are available as the strings Athena returned,
+ * without copying.  Values of integer, floating point, and boolean columns are parsed into primitive arrays
+ * lazily, once per column on first access to the kind or typed values of that column, so that formats
+ * that only write strings never pay for parsing.  A batch may be built from SDK model rows or directly from
+ * column buffers, e.g. when decoding a <code>GetQueryResults</code> response body.  If any value of an integer,
+ * floating point, or boolean column does not parse, that column is stored as strings only.
+ * </p>
+ */
+final class RowBatch {
+    private final List<ColumnInfo> columns;
+    private final String[] header;
+    private final int size;
+    private final ColumnType[] types;
+    private final String[][] strings;
+    private final Parsed[] parsed;
+
+    /** Parsed values of a column stored as strings only. */
+    private static final Parsed STRINGS = new Parsed(ColumnType.Kind.STRING, null, null, null);
+
+
+    /**
+     * Create a new row batch.
+     *
+     * @param columns list of columns
+     * @param header values of the header row, if any
+     * @param strings column buffers of values, one per column
+     * @param size number of rows, not including the header row
+     */
+    private RowBatch(final List<ColumnInfo> columns, final String[] header, final String[][] strings, final int size) {
+        this.columns = columns;
+        this.header = header;
+        this.strings = strings;
+        this.size = size;
+
+        int columnCount = columns.size();
+        types = new ColumnType[columnCount];
+        parsed = new Parsed[columnCount];
+        for (int c = 0; c < columnCount; c++) {
+            types[c] = ColumnType.of(columns.get(c));
+        }
+    }
+
+
+    /**
+     * Return the parsed values of the specified column, parsing them on first access.
+     *
+     * @param column column index
+     * @return the parsed values of the specified column
+     */
+    private Parsed parsed(final int column) {
+        // final fields of a parsed column are safely published, even if read without synchronization
+        Parsed p = parsed[column];
+        if (p == null) {
+            synchronized (parsed) {
+                p = parsed[column];
+                if (p == null) {
+                    p = parse(column, types[column].kind());
+                    parsed[column] = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    private Parsed parse(final int column, final ColumnType.Kind kind) {
+        String[] values = strings[column];
+        try {
+            switch (kind) {
+                case LONG:
+                    long[] l = new long[size];
+                    for (int r = 0; r < size; r++) {
+                        if (values[r] != null) {
+                            l[r] = Long.parseLong(values[r]);
+                        }
+                    }
+                    return new Parsed(kind, l, null, null);
+                case DOUBLE:
+                    double[] d = new double[size];
+                    for (int r = 0; r < size; r++) {
+                        if (values[r] != null) {
+                            d[r] = Double.parseDouble(values[r]);
+                        }
+                    }
+                    return new Parsed(kind, null, d, null);
+                case BOOLEAN:
+                    boolean[] b = new boolean[size];
+                    for (int r = 0; r < size; r++) {
+                        if ("true".equals(values[r])) {
+                            b[r] = true;
+                        }
+                        else if (values[r] != null && !"false".equals(values[r])) {
+                            throw new NumberFormatException("not a boolean value: " + values[r]);
+                        }
+                    }
+                    return new Parsed(kind, null, null, b);
+                default:
+                    break;
+            }
+        }
+        catch (NumberFormatException e) {
+            // fall back to strings
+        }
+        return STRINGS;
+    }
+
+    /**
+     * Return the list of columns for this batch.
+     *
+     * @return the list of columns for this batch
+     */
+    List<ColumnInfo> columns() {
+        return columns;
+    }
+
+    /**
+     * Return true if the rows for this batch as returned by Athena start with a header row.
+     *
+     * @return true if the rows for this batch as returned by Athena start with a header row
+     */
+    boolean hasHeaderRow() {
+        return header != null;
+    }
+
+    /**
+     * Return the values of the header row for this batch, if any.
+     *
+     * @return the values of the header row for this batch, or <code>null</code> if this batch has no header row
+     */
+    String[] headerRow() {
+        return header;
+    }
+
+    /**
+     * Return the number of columns in this batch.
+     *
+     * @return the number of columns in this batch
+     */
+    int columnCount() {
+        return types.length;
+    }
+
+    /**
+     * Return the number of rows in this batch, not including the header row, if any.
+     *
+     * @return the number of rows in this batch
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Return the type of the specified column.
+     *
+     * @param column column index
+     * @return the type of the specified column
+     */
+    ColumnType type(final int column) {
+        return types[column];
+    }
+
+    /**
+     * Return the kind of values stored for the specified column, which is <code>STRING</code> if
+     * values of the column type did not parse.
+     *
+     * @param column column index
+     * @return the kind of values stored for the specified column
+     */
+    ColumnType.Kind kind(final int column) {
+        return parsed(column).kind;
+    }
+
+    /**
+     * Return true if the value at the specified column and row is null.
+     *
+     * @param column column index
+     * @param row row index
+     * @return true if the value at the specified column and row is null
+     */
+    boolean isNull(final int column, final int row) {
+        return strings[column][row] == null;
+    }
+
+    /**
+     * Return the value at the specified column and row as the string returned by Athena.
+     *
+     * @param column column index
+     * @param row row index
+     * @return the value at the specified column and row as the string returned by Athena, or <code>null</code> if null
+     */
+    String getString(final int column, final int row) {
+        return strings[column][row];
+    }
+
+    /**
+     * Return the value at the specified column and row, for a column of kind <code>LONG</code>.
+     *
+     * @param column column index
+     * @param row row index
+     * @return the value at the specified column and row, or <code>0</code> if null
+     */
+    long getLong(final int column, final int row) {
+        return parsed(column).longs[row];
+    }
+
+    /**
+     * Return the value at the specified column and row, for a column of kind <code>DOUBLE</code>.
+     *
+     * @param column column index
+     * @param row row index
+     * @return the value at the specified column and row, or <code>0.0</code> if null
+     */
+    double getDouble(final int column, final int row) {
+        return parsed(column).doubles[row];
+    }
+
+    /**
+     * Return the value at the specified column and row, for a column of kind <code>BOOLEAN</code>.
+     *
+     * @param column column index
+     * @param row row index
+     * @return the value at the specified column and row, or <code>false</code> if null
+     */
+    boolean getBoolean(final int column, final int row) {
+        return parsed(column).booleans[row];
+    }
+
+    /**
+     * Return a row batch with the first rows of this batch, up to the specified number of rows.
+     *
+     * @param rows number of rows, must be at least zero
+     * @return a row batch with the first rows of this batch, up to the specified number of rows
+     */
+    RowBatch limit(final int rows) {
+        checkArgument(rows >= 0, "rows must be at least zero");
+        if (rows >= size) {
+            return this;
+        }
+        String[][] limited = new String[strings.length][];
+        for (int c = 0; c < strings.length; c++) {
+            limited[c] = Arrays.copyOf(strings[c], rows);
+        }
+        return new RowBatch(columns, header, limited, rows);
+    }
+
+    /**
+     * Create a new row batch from the specified list of columns and list of rows.
+     *
+     * @param columns list of columns, must not be null
+     * @param rows list of rows, must not be null
+     * @param firstPage true if the specified list of rows is the first page of results, and so may start with a header row
+     * @return a new row batch from the specified list of columns and list of rows
+     */
+    static RowBatch of(final List<ColumnInfo> columns, final List<Row> rows, final boolean firstPage) {
+        checkNotNull(columns);
+        checkNotNull(rows);
+
+        int offset = (firstPage && isHeaderRow(columns, rows)) ? 1 : 0;
+        int size = rows.size() - offset;
+        int columnCount = columns.size();
+        String[][] strings = new String[columnCount][offset + size];
+
+        // transpose once, rows to columns
+        for (int r = 0, length = rows.size(); r < length; r++) {
+            List<Datum> data = rows.get(r).data();
+            for (int c = 0, width = Math.min(columnCount, data.size()); c < width; c++) {
+                Datum datum = data.get(c);
+                strings[c][r] = datum == null ? null : datum.varCharValue();
+            }
+        }
+        return create(columns, strings, offset, size);
+    }
+
+    /**
+     * Create a new row batch from the specified list of columns and column buffers of values.
+     *
+     * <p>
+     * Column buffers may be longer than the specified number of rows, e.g. if grown by doubling
+     * while decoding.  Column buffers beyond the number of columns are ignored, and columns without
+     * a column buffer are all null.
+     * </p>
+     *
+     * @param columns list of columns, must not be null
+     * @param values column buffers of values, one per column, must not be null
+     * @param rows number of rows in the specified column buffers, including the header row, if any
+     * @param firstPage true if the specified column buffers are the first page of results, and so may start with a header row
+     * @return a new row batch from the specified list of columns and column buffers of values
+     */
+    static RowBatch of(final List<ColumnInfo> columns, final String[][] values, final int rows, final boolean firstPage) {
+        checkNotNull(columns);
+        checkNotNull(values);
+        boolean headerRow = firstPage && !columns.isEmpty() && values.length > 0 && rows > 0
+            && columns.get(0).name().equals(values[0][0]);
+        return create(columns, values, headerRow ? 1 : 0, rows - (headerRow ? 1 : 0));
+    }
+
+    private static RowBatch create(final List<ColumnInfo> columns, final String[][] values, final int offset, final int size) {
+        int columnCount = columns.size();
+        String[] header = null;
+        if (offset > 0) {
+            header = new String[columnCount];
+            for (int c = 0, width = Math.min(columnCount, values.length); c < width; c++) {
+                header[c] = values[c][0];
+            }
+        }
+        String[][] strings = new String[columnCount][];
+        for (int c = 0; c < columnCount; c++) {
+            if (c >= values.length) {
+                strings[c] = new String[size];
+            }
+            else if (offset == 0 && values[c].length == size) {
+                strings[c] = values[c];
+            }
+            else {
+                strings[c] = Arrays.copyOfRange(values[c], offset, offset + size);
+            }
+        }
+        return new RowBatch(columns, header, strings, size);
+    }
+
+    // sigh... the first page of results starts with a row of column names
+    static boolean isHeaderRow(final List<ColumnInfo> columns, final List<Row> rows) {
+        if (columns.isEmpty() || rows.isEmpty()) {
+            return false;
+        }
+        List<Datum> data = rows.get(0).data();
+        if (data.isEmpty()) {
+            return false;
+        }
+        return columns.get(0).name().equals(data.get(0).varCharValue());
+    }
+
+    /**
+     * Parsed values of a column.
+     */
+    private static final class Parsed {
+        private final ColumnType.Kind kind;
+        private final long[] longs;
+        private final double[] doubles;
+        private final boolean[] booleans;
+
+        Parsed(final ColumnType.Kind kind, final long[] longs, final double[] doubles, final boolean[] booleans) {
+            this.kind = kind;
+            this.longs = longs;
+            this.doubles = doubles;
+            this.booleans = booleans;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.core.ResponseInputStream;
+
+import software.amazon.awssdk.services.s3.S3Client;
+
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+/**
+ * Download of an S3 object with concurrent byte-range GETs.
+ */
+final class S3Download {
+    private final S3Client s3Client;
+    private final int threads;
+    private final long partSize;
+
+    /** Default part size, 8 MiB. */
+    static final long DEFAULT_PART_SIZE = 8L * 1024L * 1024L;
+
+    /** Default number of download threads. */
+    static final int DEFAULT_THREADS = 8;
+
+    static final Logger logger = LoggerFactory.getLogger(S3Download.class);
+
+
+    /**
+     * Create a new S3 download.
+     *
+     * @param s3Client S3 client, must not be null
+     * @param threads number of download threads, must be greater than zero
+     * @param partSize part size in bytes, must be greater than zero
+     */
+    S3Download(final S3Client s3Client, final int threads, final long partSize) {
+        checkNotNull(s3Client);
+        checkArgument(threads > 0, "threads must be greater than zero");
+        checkArgument(partSize > 0L, "partSize must be greater than zero");
+        this.s3Client = s3Client;
+        this.threads = threads;
+        this.partSize = partSize;
+    }
+
+
+    /**
+     * Download the object at the specified S3 location to the specified path.
+     *
+     * @param location S3 location to download, must not be null
+     * @param path path to download to, must not be null
+     * @return the number of bytes downloaded
+     * @throws IOException if an I/O error occurs
+     */
+    long download(final S3Location location, final Path path) throws IOException {
+        checkNotNull(location);
+        checkNotNull(path);
+
+        HeadObjectResponse head = s3Client.headObject(HeadObjectRequest.builder()
+            .bucket(location.bucket())
+            .key(location.key())
+            .build());
+
+        long contentLength = head.contentLength();
+        String eTag = head.eTag();
+        int parts = (int) Math.max(1L, (contentLength + partSize - 1L) / partSize);
+        logger.info("Downloading {} bytes from {} in {} parts with {} threads", contentLength, location, parts, threads);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(Math.min(threads, parts));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Future<Long>> futures = new ArrayList<>(parts);
+            for (int i = 0; i < parts; i++) {
+                long start = i * partSize;
+                long end = Math.min(contentLength, start + partSize) - 1L;
+                futures.add(executorService.submit(() -> downloadPart(location, eTag, start, end, channel)));
+            }
+            long downloaded = 0L;
+            for (Future<Long> future : futures) {
+                downloaded += future.get();
+            }
+            return downloaded;
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted downloading " + location, e);
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Download the specified byte range into the specified file channel at the same position.
+     */
+    private long downloadPart(final S3Location location,
+                              final String eTag,
+                              final long start,
+                              final long end,
+                              final FileChannel channel) throws IOException {
+
+        if (end < start) {
+            return 0L;
+        }
+        GetObjectRequest.Builder request = GetObjectRequest.builder()
+            .bucket(location.bucket())
+            .key(location.key())
+            .range("bytes=" + start + "-" + end);
+
+        // guard against the object changing between parts
+        if (eTag != null) {
+            request.ifMatch(eTag);
+        }
+
+        long position = start;
+        byte[] buffer = new byte[64 * 1024];
+        try (ResponseInputStream<GetObjectResponse> inputStream = s3Client.getObject(request.build())) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                while (byteBuffer.hasRemaining()) {
+                    position += channel.write(byteBuffer, position);
+                }
+            }
+        }
+        if (position != end + 1L) {
+            throw new IOException("short read for range " + start + "-" + end + " of " + location + ", read " + (position - start) + " bytes");
+        }
+        return position - start;
+    }
+}
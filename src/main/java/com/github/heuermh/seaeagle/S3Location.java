@@ -0,0 +1,95 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * S3 location.
+ */
+final class S3Location {
+    private final String bucket;
+    private final String key;
+
+    /** S3 URI scheme prefix. */
+    static final String PREFIX = "s3://";
+
+
+    /**
+     * Create a new S3 location.
+     *
+     * @param bucket bucket, must not be null
+     * @param key key, must not be null
+     */
+    S3Location(final String bucket, final String key) {
+        checkNotNull(bucket);
+        checkNotNull(key);
+        this.bucket = bucket;
+        this.key = key;
+    }
+
+
+    /**
+     * Return the bucket for this S3 location.
+     *
+     * @return the bucket for this S3 location
+     */
+    String bucket() {
+        return bucket;
+    }
+
+    /**
+     * Return the key for this S3 location.
+     *
+     * @return the key for this S3 location
+     */
+    String key() {
+        return key;
+    }
+
+    /**
+     * Return a new S3 location in the same bucket with the specified key.
+     *
+     * @param key key, must not be null
+     * @return a new S3 location in the same bucket with the specified key
+     */
+    S3Location withKey(final String key) {
+        return new S3Location(bucket, key);
+    }
+
+    @Override
+    public String toString() {
+        return PREFIX + bucket + "/" + key;
+    }
+
+    /**
+     * Parse the specified value into an S3 location.
+     *
+     * @param value value to parse, must not be null and must start with <code>s3://</code>
+     * @return the specified value parsed into an S3 location
+     */
+    static S3Location parse(final String value) {
+        checkNotNull(value);
+        checkArgument(value.startsWith(PREFIX), "S3 location must start with " + PREFIX + ", was " + value);
+        String path = value.substring(PREFIX.length());
+        int slash = path.indexOf('/');
+        if (slash < 0) {
+            return new S3Location(path, "");
+        }
+        return new S3Location(path.substring(0, slash), path.substring(slash + 1));
+    }
+}
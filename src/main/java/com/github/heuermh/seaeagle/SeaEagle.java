@@ -19,11 +19,34 @@ import static org.dishevelled.compress.Readers.reader;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 
+import java.net.URI;
+import java.net.URLEncoder;
+
+import java.nio.channels.FileChannel;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
 
+import java.time.format.DateTimeFormatter;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
 
 import java.util.concurrent.Callable;
 
@@ -36,24 +59,43 @@ import picocli.CommandLine.Command;
 import picocli.CommandLine.HelpCommand;
 import picocli.CommandLine.ScopeType;
 
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.ProfileCredentialsProvider;
 
+import software.amazon.awssdk.awscore.retry.AwsRetryStrategy;
+
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+
+import software.amazon.awssdk.core.exception.SdkException;
+
+import software.amazon.awssdk.http.SdkHttpClient;
+
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+
+import software.amazon.awssdk.regions.providers.DefaultAwsRegionProviderChain;
+
 import software.amazon.awssdk.services.athena.AthenaClient;
+import software.amazon.awssdk.services.athena.AthenaClientBuilder;
 
 import software.amazon.awssdk.services.athena.model.QueryExecutionContext;
 import software.amazon.awssdk.services.athena.model.ResultConfiguration;
+import software.amazon.awssdk.services.athena.model.ResultReuseByAgeConfiguration;
+import software.amazon.awssdk.services.athena.model.ResultReuseConfiguration;
 import software.amazon.awssdk.services.athena.model.StartQueryExecutionRequest;
 import software.amazon.awssdk.services.athena.model.StartQueryExecutionResponse;
-import software.amazon.awssdk.services.athena.model.AthenaException;
 import software.amazon.awssdk.services.athena.model.GetQueryExecutionRequest;
 import software.amazon.awssdk.services.athena.model.GetQueryExecutionResponse;
+import software.amazon.awssdk.services.athena.model.GetWorkGroupRequest;
+import software.amazon.awssdk.services.athena.model.WorkGroup;
+import software.amazon.awssdk.services.athena.model.QueryExecution;
 import software.amazon.awssdk.services.athena.model.QueryExecutionState;
 import software.amazon.awssdk.services.athena.model.GetQueryResultsRequest;
 import software.amazon.awssdk.services.athena.model.GetQueryResultsResponse;
 import software.amazon.awssdk.services.athena.model.ColumnInfo;
 import software.amazon.awssdk.services.athena.model.Row;
 
-import software.amazon.awssdk.services.athena.paginators.GetQueryResultsIterable;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
 
 /**
  * Sea eagle.
@@ -63,7 +105,13 @@ import software.amazon.awssdk.services.athena.paginators.GetQueryResultsIterable
   scope = ScopeType.INHERIT,
   subcommands = {
       HelpCommand.class,
-      GenerateCompletion.class
+      GenerateCompletion.class,
+      Batch.class,
+      Fetch.class,
+      ListExecutions.class,
+      History.class,
+      Metadata.class,
+      Complete.class
   },
   mixinStandardHelpOptions = true,
   sortOptions = false,
@@ -85,9 +133,18 @@ public final class SeaEagle implements Callable<Integer> {
     @picocli.CommandLine.Option(names = { "-b", "--output-location" }, defaultValue = "${SE_OUTPUT_LOCATION}")
     private String outputLocation;
 
+    @picocli.CommandLine.Option(names = { "--polling-strategy" })
+    private String pollingStrategy = "adaptive";
+
     @picocli.CommandLine.Option(names = { "-n", "--polling-interval" })
     private long pollingInterval = DEFAULT_POLLING_INTERVAL;
 
+    @picocli.CommandLine.Option(names = { "--max-polling-interval" })
+    private long maxPollingInterval = AdaptivePollingStrategy.DEFAULT_MAXIMUM_INTERVAL;
+
+    @picocli.CommandLine.Option(names = { "--api-rate-limit" })
+    private double apiRateLimit = DEFAULT_API_RATE_LIMIT;
+
     @picocli.CommandLine.Option(names = { "--preserve-whitespace" })
     private boolean preserveWhitespace;
 
@@ -107,10 +164,91 @@ public final class SeaEagle implements Callable<Integer> {
     private List<String> executionParameters;
 
     @picocli.CommandLine.Option(names = { "-o", "--results-path" })
-    private Path resultsPath;
+    private List<Path> resultsPaths;
+
+    @picocli.CommandLine.Option(names = { "--watermark-column" })
+    private String watermarkColumn;
+
+    @picocli.CommandLine.Option(names = { "--watermark-path" })
+    private Path watermarkPath;
+
+    @picocli.CommandLine.Option(names = { "--initial-watermark" })
+    private String initialWatermark;
+
+    @picocli.CommandLine.Option(names = { "--watermark-output" })
+    private String watermarkOutput = "append";
 
     @picocli.CommandLine.Option(names = { "-f", "--format", "--results-format" })
-    private String resultsFormat = "text";
+    private List<String> resultsFormats;
+
+    @picocli.CommandLine.Option(names = { "--max-rows" })
+    private long maxRows = 0L;
+
+    @picocli.CommandLine.Option(names = { "--retrieval-mode" })
+    private String retrievalMode = "paginated";
+
+    @picocli.CommandLine.Option(names = { "--prefetch-depth" })
+    private int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+
+    @picocli.CommandLine.Option(names = { "--download-threads" })
+    private int downloadThreads = S3Download.DEFAULT_THREADS;
+
+    @picocli.CommandLine.Option(names = { "--parser-threads" })
+    private int parserThreads = AthenaCsvParser.DEFAULT_THREADS;
+
+    @picocli.CommandLine.Option(names = { "--format-threads" })
+    private int formatThreads = FormattingPipeline.DEFAULT_THREADS;
+
+    @picocli.CommandLine.Option(names = { "--s3-endpoint" }, defaultValue = "${SE_S3_ENDPOINT}")
+    private URI s3Endpoint;
+
+    @picocli.CommandLine.Option(names = { "--athena-endpoint" }, defaultValue = "${SE_ATHENA_ENDPOINT}")
+    private URI athenaEndpoint;
+
+    @picocli.CommandLine.Option(names = { "--unload" })
+    private boolean unload;
+
+    @picocli.CommandLine.Option(names = { "--unload-location" }, defaultValue = "${SE_UNLOAD_LOCATION}")
+    private String unloadLocation;
+
+    @picocli.CommandLine.Option(names = { "--merge" })
+    private boolean merge;
+
+    @picocli.CommandLine.Option(names = { "--resume" })
+    private boolean resume;
+
+    @picocli.CommandLine.Option(names = { "--checkpoint-interval" })
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+
+    @picocli.CommandLine.Option(names = { "--cache" }, negatable = true, defaultValue = "${SE_CACHE:-false}", fallbackValue = "true")
+    private boolean cache;
+
+    @picocli.CommandLine.Option(names = { "--refresh-cache" })
+    private boolean refreshCache;
+
+    @picocli.CommandLine.Option(names = { "--cache-ttl" })
+    private long cacheTtl = ResultCache.DEFAULT_TTL;
+
+    @picocli.CommandLine.Option(names = { "--cache-max-size" })
+    private long cacheMaxSize = ResultCache.DEFAULT_MAX_SIZE;
+
+    @picocli.CommandLine.Option(names = { "--reuse-from-history" })
+    private long reuseFromHistory = 0L;
+
+    @picocli.CommandLine.Option(names = { "--single-flight" }, negatable = true, defaultValue = "${SE_SINGLE_FLIGHT:-false}", fallbackValue = "true")
+    private boolean singleFlight;
+
+    @picocli.CommandLine.Option(names = { "--metadata-ttl" }, defaultValue = "${SE_METADATA_TTL:-86400}")
+    private long metadataTtl = MetadataCache.DEFAULT_TTL;
+
+    @picocli.CommandLine.Option(names = { "--catalog-metadata-ttl" })
+    private Map<String, Long> catalogMetadataTtl = new HashMap<>();
+
+    @picocli.CommandLine.Option(names = { "--credential-cache" }, negatable = true, defaultValue = "${SE_CREDENTIAL_CACHE:-false}", fallbackValue = "true")
+    private boolean credentialCache;
+
+    @picocli.CommandLine.Option(names = { "--state-directory" }, defaultValue = "${SE_STATE_DIRECTORY}")
+    private Path stateDirectory;
 
     @picocli.CommandLine.Option(names = { "--left-pad" })
     private int leftPad = 2;
@@ -118,15 +256,92 @@ public final class SeaEagle implements Callable<Integer> {
     @picocli.CommandLine.Option(names = { "--verbose" })
     private boolean verbose;
 
-    private final HistoryFile historyFile = new HistoryFile();
+    @picocli.CommandLine.Option(names = { "--watch" })
+    private long watch = 0L;
+
+    @picocli.CommandLine.Option(names = { "--timeout" })
+    private long timeout = 0L;
+
+    @picocli.CommandLine.Option(names = { "--max-scan-bytes" })
+    private long maxScanBytes = 0L;
+
+    @picocli.CommandLine.Option(names = { "--max-engine-time" })
+    private long maxEngineTime = 0L;
+
+    @picocli.CommandLine.Option(names = { "--budget-warning-fraction" })
+    private double budgetWarningFraction = QueryBudget.DEFAULT_WARNING_FRACTION;
+
+    @picocli.CommandLine.Option(names = { "--max-retries" })
+    private int maxRetries = RetryPolicy.DEFAULT_MAX_RETRIES;
+
+    private HistoryFile historyFile;
+
+    /** Results path of the first output, see {@link #resolveOutputs()}. */
+    private Path resultsPath;
+
+    /** Results format of the first output, see {@link #resolveOutputs()}. */
+    private String resultsFormat = DEFAULT_RESULTS_FORMAT;
+
+    private final List<String> outputFormats = new ArrayList<>();
+
+    private final List<Path> outputPaths = new ArrayList<>();
+
+    private QueryHistory queryHistory;
+
+    private RetryPolicy retryPolicy;
+
+    private WatermarkResultsProcessor watermarkProcessor;
+
+    private WatchResultsProcessor watchProcessor;
+
+    private WatchResultsProcessor.Snapshot watchSnapshot;
+
+    private PrintWriter watchWriter;
+
+    private AwsCredentialsProvider credentialsProvider;
+
+    private SdkHttpClient httpClient;
+
+    private TokenBucket tokenBucket;
+
+    private final InFlightQueries inFlightQueries = new InFlightQueries();
 
     static final long DEFAULT_POLLING_INTERVAL = 250L;
 
+    static final int DEFAULT_PREFETCH_DEPTH = 4;
+
+    static final double DEFAULT_API_RATE_LIMIT = 20.0d;
+
+    static final String DEFAULT_STATE_DIRECTORY = ".se";
+
+    static final String DEFAULT_RESULTS_FORMAT = "text";
+
+    /** Default number of pages of results between checkpoints. */
+    static final int DEFAULT_CHECKPOINT_INTERVAL = 100;
+
+    /** File name extensions of compressed results paths, which can not be appended to on resume. */
+    static final List<String> COMPRESSED_EXTENSIONS = Arrays.asList(".gz", ".bgz", ".bgzf", ".bz2", ".zst", ".xz", ".lz4", ".sz", ".br");
+
+    /** Maximum age of query results reused by Athena, in minutes. */
+    static final int MAX_RESULT_REUSE_AGE = 10080;
+
+    /** Exit code when a query execution exceeds its runtime budget. */
+    static final int BUDGET_EXCEEDED = 3;
+
+    /** Returned, never used as an exit code, when a single-flight follower should join the flight again. */
+    static final int REJOIN = -1;
+
+    /** Maximum number of times a single-flight follower joins the flight again after its query execution is canceled. */
+    static final int MAX_SINGLE_FLIGHT_REJOINS = 3;
+
     static Logger logger;
 
     @Override
     public Integer call() throws Exception {
 
+        // pair up results formats and results paths
+        resolveOutputs();
+
         // prepare query from inline or query path
         if (query == null) {
             logger.info("Reading SQL query from path {}", queryPath == null ? "<stdin>" : queryPath);
@@ -134,61 +349,436 @@ public final class SeaEagle implements Callable<Integer> {
         }
 
         // write query to history file
-        if (!skipHistory) {
-            historyFile.append(query);
+        appendHistory(query);
+
+        // pass watermark of incremental query as last execution parameter
+        if (isIncremental()) {
+            prepareIncremental();
         }
 
         // create athena client
-        logger.info("Creating Athena client with profile credentials provider");
-        AthenaClient athenaClient = AthenaClient.builder()
-            .credentialsProvider(ProfileCredentialsProvider.create())
+        try (AthenaClient athenaClient = createAthenaClient()) {
+            startInFlightQueries(athenaClient);
+            if (isWatching()) {
+                return watch(athenaClient);
+            }
+            int exitCode = runQuery(athenaClient);
+            if (exitCode == 0 && isIncremental()) {
+                advanceWatermark();
+            }
+            return exitCode;
+        }
+        finally {
+            inFlightQueries.clear();
+            logger.info("Retried Athena API calls {} times, {} ms spent backing off", retryPolicy().retries(), retryPolicy().backoffTime());
+        }
+    }
+
+    int runQuery(final AthenaClient athenaClient) throws IOException {
+        // wrap query in unload statement if necessary
+        String statement = query;
+        S3Location unloadPrefix = null;
+        if (unload) {
+            if (resultsPath == null) {
+                throw new IllegalArgumentException("--unload requires --results-path to be set");
+            }
+            if (maxRows > 0L) {
+                throw new IllegalArgumentException("--max-rows not supported with --unload");
+            }
+            if (hasMultipleOutputs()) {
+                throw new IllegalArgumentException("--unload not supported with multiple outputs");
+            }
+            unloadPrefix = resolveUnloadPrefix(athenaClient);
+            statement = UnloadExport.unloadQuery(query, unloadPrefix);
+            logger.info("Unloading query results to {}", unloadPrefix);
+        }
+
+        // replay results from local cache if fresh
+        QueryFingerprint fingerprint = fingerprint(query);
+
+        // resume processing results from checkpoint, if any
+        if (resume) {
+            checkResumable();
+            Path checkpointPath = Checkpoint.path(resultsPath);
+            Checkpoint checkpoint = Checkpoint.read(checkpointPath);
+            if (checkpoint != null) {
+                if (checkpoint.fingerprint() != null && !checkpoint.fingerprint().equals(fingerprint.toString())) {
+                    throw new IllegalArgumentException("checkpoint " + checkpointPath + " is for a different query, remove it to start over");
+                }
+                logger.info("Resuming results for query execution ID {} from checkpoint {}", checkpoint.queryExecutionId(), checkpointPath);
+                return processQueryExecution(athenaClient, checkpoint.queryExecutionId(), null, fingerprint, null, false);
+            }
+        }
+        ResultCache resultCache = isCaching() ? createResultCache() : null;
+        if (resultCache != null) {
+            if (refreshCache) {
+                logger.info("Refreshing cache entry for query fingerprint {}", fingerprint);
+            }
+            else {
+                Integer exitCode = replayCachedResults(resultCache, fingerprint);
+                if (exitCode != null) {
+                    return exitCode;
+                }
+            }
+        }
+
+        // fetch results again from an identical query execution that succeeded recently
+        if (reuseFromHistory > 0L && !unload) {
+            String queryExecutionId = findInHistory(athenaClient, fingerprint);
+            if (queryExecutionId != null) {
+                logger.info("Reusing results of query execution ID {} from history", queryExecutionId);
+                return processQueryExecution(athenaClient, queryExecutionId, null, fingerprint, resultCache, false);
+            }
+        }
+
+        // join identical concurrent queries in other processes
+        if (isSingleFlight()) {
+            String canceled = null;
+            for (int rejoins = 0; ; rejoins++) {
+                SingleFlight.Flight flight;
+                try {
+                    flight = createSingleFlight().join(fingerprint, canceled);
+                }
+                catch (IOException e) {
+                    logger.warn("Could not join single-flight for query fingerprint {}, caught I/O exception", fingerprint, e);
+                    return executeQuery(athenaClient, statement, unloadPrefix, fingerprint, resultCache, null);
+                }
+                catch (InterruptedException e) {
+                    logger.error("Could not join single-flight for query fingerprint {}, interrupted", fingerprint, e);
+                    return 1;
+                }
+                int exitCode;
+                try (flight) {
+                    // a previous leader may have cached results while this process was waiting
+                    if (flight.isLeader() && resultCache != null && !refreshCache) {
+                        Integer cachedExitCode = replayCachedResults(resultCache, fingerprint);
+                        if (cachedExitCode != null) {
+                            return cachedExitCode;
+                        }
+                    }
+                    exitCode = executeQuery(athenaClient, statement, unloadPrefix, fingerprint, resultCache, flight);
+                }
+                if (exitCode != REJOIN) {
+                    return exitCode;
+                }
+                canceled = flight.queryExecutionId();
+                if (rejoins == MAX_SINGLE_FLIGHT_REJOINS) {
+                    logger.error("Query executions followed in single-flight for query fingerprint {} canceled {} times, giving up", fingerprint, rejoins + 1);
+                    return 1;
+                }
+                logger.warn("Joining single-flight for query fingerprint {} again", fingerprint);
+            }
+        }
+        return executeQuery(athenaClient, statement, unloadPrefix, fingerprint, resultCache, null);
+    }
+
+    int watch(final AthenaClient athenaClient) throws IOException {
+        checkWatchable();
+        logger.info("Running query every {} seconds", watch);
+        try {
+            while (true) {
+                long start = System.currentTimeMillis();
+                int exitCode = runQuery(athenaClient);
+                if (exitCode != 0) {
+                    return exitCode;
+                }
+                if ((watchProcessor != null && watchProcessor.isDone()) || (resultsPath == null && System.out.checkError())) {
+                    logger.info("Output closed, no longer watching query");
+                    return 0;
+                }
+                if (watchProcessor != null && watchProcessor.snapshot() != null) {
+                    watchSnapshot = watchProcessor.snapshot();
+                }
+                long delay = watch * 1000L - (System.currentTimeMillis() - start);
+                if (delay > 0L) {
+                    Thread.sleep(delay);
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            logger.info("Interrupted, no longer watching query");
+            return inFlightQueries.timedOut() ? 1 : 0;
+        }
+        finally {
+            if (watchWriter != null) {
+                if (resultsPath == null) {
+                    watchWriter.flush();
+                }
+                else {
+                    watchWriter.close();
+                }
+            }
+        }
+    }
+
+    String findInHistory(final AthenaClient athenaClient, final QueryFingerprint fingerprint) {
+        QueryHistory.Entry entry;
+        try {
+            entry = queryHistory().lastSucceeded(fingerprint, Duration.ofSeconds(reuseFromHistory));
+        }
+        catch (IOException e) {
+            logger.warn("Could not read query history, caught I/O exception", e);
+            return null;
+        }
+        if (entry == null) {
+            logger.info("No query execution for query fingerprint {} succeeded in the last {} seconds", fingerprint, reuseFromHistory);
+            return null;
+        }
+
+        // results may have been removed from the output location since
+        GetQueryExecutionRequest request = GetQueryExecutionRequest.builder()
+            .queryExecutionId(entry.queryExecutionId())
             .build();
+        try {
+            QueryExecution queryExecution = retry("get query execution for ID " + entry.queryExecutionId(), () -> athenaClient.getQueryExecution(request))
+                .queryExecution();
+            if (queryExecution.status().state() == QueryExecutionState.SUCCEEDED) {
+                return entry.queryExecutionId();
+            }
+            logger.info("Query execution for ID {} from history in state {}, submitting query", entry.queryExecutionId(), queryExecution.status().state());
+        }
+        catch (IOException | SdkException e) {
+            logger.warn("Could not get query execution for ID {} from history, submitting query", entry.queryExecutionId(), e);
+        }
+        return null;
+    }
+
+    Integer replayCachedResults(final ResultCache resultCache, final QueryFingerprint fingerprint) throws IOException {
+        Path cached = null;
+        try {
+            cached = resultCache.lookup(fingerprint);
+        }
+        catch (IOException e) {
+            logger.warn("Could not look up cached results for query fingerprint {}, caught I/O exception", fingerprint, e);
+        }
+        if (cached == null) {
+            logger.info("No cached results for query fingerprint {}", fingerprint);
+            return null;
+        }
+        logger.info("Replaying cached results for query fingerprint {} from {}", fingerprint, cached);
+        try (ResultsProcessor processor = createResultsProcessor()) {
+            long rows = resultCache.replay(cached, processor);
+            processor.complete();
+            logger.info("Replayed {} rows of cached results", rows);
+        }
+        catch (IOException e) {
+            logger.error("Could not replay cached results from {}, removing cache entry", cached, e);
+            resultCache.remove(fingerprint);
+            return 1;
+        }
+        return 0;
+    }
+
+    int executeQuery(final AthenaClient athenaClient,
+                     final String statement,
+                     final S3Location unloadPrefix,
+                     final QueryFingerprint fingerprint,
+                     final ResultCache resultCache,
+                     final SingleFlight.Flight flight) throws IOException {
 
         //
         // submit query and poll for results
-        logger.info("Submitting SQL query to Athena");
-
         String queryExecutionId;
-        try {
-            queryExecutionId = submitAthenaQuery(athenaClient);
+        boolean follower = flight != null && !flight.isLeader();
+        if (follower) {
+            queryExecutionId = flight.queryExecutionId();
         }
-        catch (AthenaException e) {
-            logger.error("Could not submit SQL query to Athena, caught exception", e);
-            return 1;
+        else {
+            logger.info("Submitting SQL query to Athena");
+            try {
+                queryExecutionId = submitAthenaQuery(athenaClient, statement);
+            }
+            catch (SdkException e) {
+                logger.error("Could not submit SQL query to Athena, caught exception", e);
+                return 1;
+            }
+            catch (InterruptedException e) {
+                logger.error("Could not submit SQL query to Athena, interrupted", e);
+                return 1;
+            }
+            if (flight != null) {
+                try {
+                    flight.publish(queryExecutionId);
+
+                    // followers may be attached, so interruption, timeout, or budget in this process must not stop it
+                    inFlightQueries.remove(queryExecutionId);
+                    logger.info("Shared query execution ID {} with single-flight followers, it will not be stopped by this process", queryExecutionId);
+                }
+                catch (IOException e) {
+                    logger.warn("Could not publish query execution ID {} to single-flight followers, caught I/O exception", queryExecutionId, e);
+                }
+            }
         }
+        // only the process that submitted the query records it in history
+        return processQueryExecution(athenaClient, queryExecutionId, unloadPrefix, fingerprint, resultCache, !follower, follower);
+    }
+
+    int processQueryExecution(final AthenaClient athenaClient,
+                              final String queryExecutionId,
+                              final S3Location unloadPrefix,
+                              final QueryFingerprint fingerprint,
+                              final ResultCache resultCache,
+                              final boolean record) throws IOException {
+        return processQueryExecution(athenaClient, queryExecutionId, unloadPrefix, fingerprint, resultCache, record, false);
+    }
+
+    /**
+     * Poll for the specified query execution to complete and process its results.
+     *
+     * @param athenaClient Athena client
+     * @param queryExecutionId query execution ID
+     * @param unloadPrefix unload prefix, if any
+     * @param fingerprint query fingerprint, if any
+     * @param resultCache result cache, if any
+     * @param record true to record the query execution in history
+     * @param follower true if following the query execution of a single-flight leader, in which case
+     *    {@link #REJOIN} is returned if it is canceled
+     * @return an exit code, or {@link #REJOIN}
+     * @throws IOException if an I/O error occurs
+     */
+    int processQueryExecution(final AthenaClient athenaClient,
+                              final String queryExecutionId,
+                              final S3Location unloadPrefix,
+                              final QueryFingerprint fingerprint,
+                              final ResultCache resultCache,
+                              final boolean record,
+                              final boolean follower) throws IOException {
 
+        long start = System.currentTimeMillis();
         logger.info("Received query execution ID {}, polling for successful query execution state", queryExecutionId);
         try {
-            pollUntilComplete(athenaClient, queryExecutionId);
+            QueryExecution queryExecution = pollUntilComplete(athenaClient, queryExecutionId);
+            if (record) {
+                recordHistory(query, queryExecutionId, "SUCCEEDED",
+                              queryExecution.statistics() == null ? null : queryExecution.statistics().dataScannedInBytes(),
+                              System.currentTimeMillis() - start);
+            }
+            if (queryExecution.statistics() != null
+                && queryExecution.statistics().resultReuseInformation() != null
+                && Boolean.TRUE.equals(queryExecution.statistics().resultReuseInformation().reusedPreviousResult())) {
+                logger.info("Query execution for ID {} reused previous results", queryExecutionId);
+            }
         }
         catch (InterruptedException e) {
-            logger.error("Could not poll for query execution ID {} status, interrupted", queryExecutionId, e);
+            if (record) {
+                recordHistory(query, queryExecutionId, "CANCELLED", null, System.currentTimeMillis() - start);
+            }
+            if (inFlightQueries.timedOut()) {
+                logger.error("Query execution for ID {} timed out after {} seconds, stopped", queryExecutionId, timeout);
+            }
+            else {
+                logger.error("Could not poll for query execution ID {} status, interrupted", queryExecutionId, e);
+            }
             return 1;
         }
         catch (CanceledException e) {
+            if (record) {
+                recordHistory(query, queryExecutionId, "CANCELLED", null, System.currentTimeMillis() - start);
+            }
+            if (follower) {
+                logger.warn("Query execution for ID {} followed in single-flight canceled", queryExecutionId);
+                return REJOIN;
+            }
             logger.error("Query execution for ID {} canceled", queryExecutionId, e);
             return 1;
         }
         catch (FailedException e) {
+            if (record) {
+                recordHistory(query, queryExecutionId, "FAILED", null, System.currentTimeMillis() - start);
+            }
             logger.error("Query execution for ID {} failed", queryExecutionId, e);
             return 1;
         }
+        catch (BudgetExceededException e) {
+            if (record) {
+                recordHistory(query, queryExecutionId, "CANCELLED", null, System.currentTimeMillis() - start);
+            }
+            logger.error("Query execution for ID {} exceeded budget, stopped", queryExecutionId, e);
+            return BUDGET_EXCEEDED;
+        }
+        catch (SdkException e) {
+            logger.error("Could not poll for query execution ID {} status, caught exception", queryExecutionId, e);
+            return 1;
+        }
+
+        if (unloadPrefix != null) {
+            logger.info("Query execution for ID {} complete, downloading unloaded results", queryExecutionId);
+            try {
+                downloadUnloadedResults(unloadPrefix);
+            }
+            catch (SdkException | IOException e) {
+                logger.error("Could not download unloaded results for query execution ID {}, caught exception", queryExecutionId, e);
+                return 1;
+            }
+            return 0;
+        }
 
         logger.info("Query execution for ID {} complete, processing results", queryExecutionId);
         try {
-            processResults(athenaClient, queryExecutionId);
+            if (resume) {
+                processResumableResults(athenaClient, queryExecutionId, fingerprint);
+            }
+            else {
+                // unregistered only once closed, see InFlightQueries
+                ResultsProcessor processor = resultCache == null ? createResultsProcessor() : resultCache.tee(fingerprint, createResultsProcessor());
+                inFlightQueries.register(processor);
+                try (processor) {
+                    processResults(athenaClient, queryExecutionId, processor);
+                }
+                finally {
+                    inFlightQueries.unregister(processor);
+                }
+            }
         }
-        catch (AthenaException | IOException e) {
-            logger.error("Could not process results for query execution ID {}, caught exception", queryExecutionId, e);
+        catch (SdkException | IOException e) {
+            if (inFlightQueries.timedOut()) {
+                logger.error("Processing results for query execution ID {} timed out after {} seconds", queryExecutionId, timeout);
+            }
+            else {
+                logger.error("Could not process results for query execution ID {}, caught exception", queryExecutionId, e);
+            }
             return 1;
         }
-
-        athenaClient.close();
         return 0;
     }
 
 
+    void startInFlightQueries(final AthenaClient athenaClient) {
+        inFlightQueries.installShutdownHook(athenaClient);
+        if (timeout > 0L) {
+            inFlightQueries.scheduleTimeout(timeout, Thread.currentThread());
+        }
+    }
+
+    InFlightQueries inFlightQueries() {
+        return inFlightQueries;
+    }
+
+    AthenaClient createAthenaClient() {
+        logger.info("Creating Athena client with profile credentials provider{}", athenaEndpoint == null ? "" : " and endpoint " + athenaEndpoint);
+        AthenaClientBuilder builder = AthenaClient.builder()
+            .credentialsProvider(credentialsProvider());
+
+        if (athenaEndpoint != null) {
+            builder.endpointOverride(athenaEndpoint);
+        }
+
+        // retries are made by the retry policy only, with its backoff and accounting
+        ClientOverrideConfiguration.Builder overrideConfiguration = ClientOverrideConfiguration.builder()
+            .retryStrategy(AwsRetryStrategy.doNotRetry());
+
+        // all control plane calls share one token bucket
+        if (tokenBucket() != null) {
+            overrideConfiguration.addExecutionInterceptor(new RateLimitingInterceptor(tokenBucket()));
+        }
+        return builder.overrideConfiguration(overrideConfiguration.build()).build();
+    }
+
     String readQueryPath() throws IOException {
+        return readQuery(queryPath);
+    }
+
+    String readQuery(final Path queryPath) throws IOException {
         StringBuilder sb = new StringBuilder();
         try (BufferedReader reader = reader(queryPath)) {
             while (reader.ready()) {
@@ -204,7 +794,7 @@ public final class SeaEagle implements Callable<Integer> {
         return preserveWhitespace ? sb.toString().trim() : sb.toString().trim().replaceAll("\\s{2,}", " ");
     }
 
-    String submitAthenaQuery(final AthenaClient athenaClient) throws AthenaException {
+    String submitAthenaQuery(final AthenaClient athenaClient, final String queryString) throws InterruptedException, SdkException {
         // configure query execution context
         QueryExecutionContext.Builder queryExecutionContextBuilder = QueryExecutionContext.builder();
         if (catalog != null) {
@@ -230,62 +820,853 @@ public final class SeaEagle implements Callable<Integer> {
         if (executionParameters != null) {
             startQueryExecutionRequestBuilder.executionParameters(executionParameters);
         }
-        startQueryExecutionRequestBuilder.queryString(query);
+        // reuse recent results server side on local cache miss
+        if (isCaching() && !refreshCache) {
+            startQueryExecutionRequestBuilder.resultReuseConfiguration(ResultReuseConfiguration.builder()
+                .resultReuseByAgeConfiguration(ResultReuseByAgeConfiguration.builder()
+                    .enabled(true)
+                    .maxAgeInMinutes((int) Math.max(1L, Math.min(MAX_RESULT_REUSE_AGE, cacheTtl / 60L)))
+                    .build())
+                .build());
+        }
+        // reuse results only if strictly younger than the watch interval, so a run never reuses the previous run
+        else if (isWatching() && (watch / 60L) - 1L >= 1L) {
+            startQueryExecutionRequestBuilder.resultReuseConfiguration(ResultReuseConfiguration.builder()
+                .resultReuseByAgeConfiguration(ResultReuseByAgeConfiguration.builder()
+                    .enabled(true)
+                    .maxAgeInMinutes((int) Math.min(MAX_RESULT_REUSE_AGE, (watch / 60L) - 1L))
+                    .build())
+                .build());
+        }
+        // idempotent across retries, so a retried start never launches a duplicate query
+        startQueryExecutionRequestBuilder.clientRequestToken(UUID.randomUUID().toString());
+        startQueryExecutionRequestBuilder.queryString(queryString);
         startQueryExecutionRequestBuilder.queryExecutionContext(queryExecutionContext);
         startQueryExecutionRequestBuilder.resultConfiguration(resultConfiguration);
         StartQueryExecutionRequest request = startQueryExecutionRequestBuilder.build();
 
         // start query execution
-        StartQueryExecutionResponse response = athenaClient.startQueryExecution(request);
+        StartQueryExecutionResponse response = retryPolicy().execute("start query execution", () -> athenaClient.startQueryExecution(request));
+        inFlightQueries.add(response.queryExecutionId());
         return response.queryExecutionId();
     }
 
-    void pollUntilComplete(final AthenaClient athenaClient, final String queryExecutionId) throws InterruptedException, CanceledException, FailedException {
+    QueryExecution pollUntilComplete(final AthenaClient athenaClient, final String queryExecutionId)
+        throws InterruptedException, BudgetExceededException, CanceledException, FailedException, SdkException {
         GetQueryExecutionRequest request = GetQueryExecutionRequest.builder()
             .queryExecutionId(queryExecutionId)
             .build();
 
-        boolean running = true;
-        while (running) {
-            GetQueryExecutionResponse response = athenaClient.getQueryExecution(request);
-            QueryExecutionState current = response.queryExecution().status().state();
-            switch (current) {
-                case CANCELLED:
-                    throw new CanceledException();
-                case FAILED:
-                    // see also AthenaError
-                    throw new FailedException(response.queryExecution().status().stateChangeReason());
-                case SUCCEEDED:
-                    // see also QueryExecutionStatistics
-                    running = false;
-                    break;
-                case QUEUED:
-                case RUNNING:
-                case UNKNOWN_TO_SDK_VERSION:
-                    logger.info("Query execution for ID {} still running", queryExecutionId);
-                    Thread.sleep(pollingInterval);
+        PollingStrategy strategy = createPollingStrategy();
+        QueryBudget budget = createBudget();
+        PollingStatistics statistics = new PollingStatistics();
+        try {
+            while (true) {
+                GetQueryExecutionResponse response = retryPolicy().execute("get query execution for ID " + queryExecutionId, () -> athenaClient.getQueryExecution(request));
+                statistics.poll();
+
+                QueryExecution queryExecution = response.queryExecution();
+                QueryExecutionState current = queryExecution.status().state();
+                switch (current) {
+                    case CANCELLED:
+                        inFlightQueries.remove(queryExecutionId);
+                        throw new CanceledException();
+                    case FAILED:
+                        inFlightQueries.remove(queryExecutionId);
+                        // see also AthenaError
+                        throw new FailedException(queryExecution.status().stateChangeReason());
+                    case SUCCEEDED:
+                        inFlightQueries.remove(queryExecutionId);
+                        statistics.completed(queryExecution, Instant.now());
+                        return queryExecution;
+                    case QUEUED:
+                    case RUNNING:
+                    case UNKNOWN_TO_SDK_VERSION:
+                    default:
+                        budget.check(queryExecution);
+                        long delay = strategy.delay(queryExecution, statistics.polls());
+                        logger.info("Query execution for ID {} still {}, polling again in {} ms", queryExecutionId, current, delay);
+                        Thread.sleep(delay);
+                        statistics.waited(delay);
+                }
             }
         }
+        catch (BudgetExceededException | InterruptedException | SdkException e) {
+            // no longer waiting for this query execution, so stop it
+            inFlightQueries.stop(queryExecutionId);
+            throw e;
+        }
+        finally {
+            logger.info("Polled query execution ID {} {} times, waited {} ms, {} ms of which after completion",
+                        queryExecutionId, statistics.polls(), statistics.waitTime(), statistics.wastedWaitTime());
+        }
     }
 
-    void processResults(final AthenaClient athenaClient, final String queryExecutionId) throws AthenaException, IOException {
-        try (ResultsProcessor processor = createProcessor()) {
-            GetQueryResultsRequest request = GetQueryResultsRequest.builder()
-                .queryExecutionId(queryExecutionId)
-                .build();
+    QueryBudget createBudget() {
+        return new QueryBudget(Math.max(0L, maxScanBytes), Math.max(0L, maxEngineTime) * 1000L, budgetWarningFraction);
+    }
+
+    PollingStrategy createPollingStrategy() {
+        switch (pollingStrategy) {
+            case "fixed":
+                return new FixedPollingStrategy(pollingInterval);
+            case "adaptive":
+            default:
+                return new AdaptivePollingStrategy(AdaptivePollingStrategy.DEFAULT_MINIMUM_INTERVAL,
+                                                   Math.max(AdaptivePollingStrategy.DEFAULT_MINIMUM_INTERVAL, maxPollingInterval));
+        }
+    }
+
+    void processResults(final AthenaClient athenaClient, final String queryExecutionId, final ResultsProcessor processor) throws SdkException, IOException {
+        ResultPages results = new ResultPages(athenaClient, queryExecutionId, null, retryPolicy());
+        switch (retrievalMode) {
+            case "s3":
+                GetQueryExecutionRequest request = GetQueryExecutionRequest.builder()
+                    .queryExecutionId(queryExecutionId)
+                    .build();
+                String resultsLocation = retry("get query execution for ID " + queryExecutionId, () -> athenaClient.getQueryExecution(request))
+                    .queryExecution().resultConfiguration().outputLocation();
+
+                // DDL and utility statements write text results, not CSV
+                if (resultsLocation != null && resultsLocation.endsWith(".csv")) {
+                    processS3Results(athenaClient, queryExecutionId, S3Location.parse(resultsLocation), processor);
+                    break;
+                }
+                logger.info("Results for query execution ID {} at {} not in CSV format, paging results instead", queryExecutionId, resultsLocation);
+                processPages(results, processor);
+                break;
+            case "prefetch":
+                logger.info("Prefetching up to {} pages of results for query execution ID {}", prefetchDepth, queryExecutionId);
+                try (PrefetchingIterable<GetQueryResultsResponse> prefetched = new PrefetchingIterable<>(results, prefetchDepth)) {
+                    processPages(prefetched, processor);
+                }
+                break;
+            case "stream":
+                StreamingResultPages batches = createStreamingResultPages(queryExecutionId);
+                if (formatThreads > 1) {
+                    // decoded as they stream in on the fetch thread
+                    new FormattingPipeline(formatThreads).process(batches, (batch, firstPage) -> batch, processor);
+                }
+                else {
+                    processBatches(batches, processor);
+                }
+                break;
+            case "paginated":
+            default:
+                processPages(results, processor);
+        }
+        if (processor.isDone()) {
+            logger.info("Stopped processing results for query execution ID {} early, row limit reached or output closed", queryExecutionId);
+        }
+        processor.complete();
+    }
+
+    void processPages(final Iterable<GetQueryResultsResponse> results, final ResultsProcessor processor) throws IOException {
+        if (formatThreads > 1) {
+            new FormattingPipeline(formatThreads).process(results, (result, firstPage) -> RowBatch.of(result.resultSet().resultSetMetadata().columnInfo(),
+                                                                                                      result.resultSet().rows(), firstPage), processor);
+        }
+        else {
+            processResults(results, processor);
+        }
+    }
+
+    StreamingResultPages createStreamingResultPages(final String queryExecutionId) {
+        String region = new DefaultAwsRegionProviderChain().getRegion().id();
+        URI endpoint = StreamingResultPages.endpoint(region, athenaEndpoint);
+        logger.info("Streaming results for query execution ID {} from {}", queryExecutionId, endpoint);
+        return new StreamingResultPages(httpClient(), endpoint, credentialsProvider(), region, tokenBucket(), queryExecutionId, null, retryPolicy());
+    }
+
+    static void processBatches(final Iterable<RowBatch> batches, final ResultsProcessor processor) throws IOException {
+        try {
+            for (RowBatch batch : batches) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("interrupted processing results");
+                }
+                processor.columns(batch.columns());
+                processor.batch(batch);
+                if (processor.isDone()) {
+                    break;
+                }
+            }
+        }
+        catch (IllegalStateException e) {
+            // thrown by results iterables when interrupted
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("interrupted processing results");
+            }
+            throw e;
+        }
+    }
 
-            GetQueryResultsIterable results = athenaClient.getQueryResultsPaginator(request);
+    static void processResults(final Iterable<GetQueryResultsResponse> results, final ResultsProcessor processor) throws IOException {
+        try {
+            boolean firstPage = true;
             for (GetQueryResultsResponse result : results) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("interrupted processing results");
+                }
                 List<Row> rows = result.resultSet().rows();
                 List<ColumnInfo> columns = result.resultSet().resultSetMetadata().columnInfo();
                 processor.columns(columns);
-                processor.rows(columns, rows);
+                processor.batch(RowBatch.of(columns, rows, firstPage));
+                firstPage = false;
+                if (processor.isDone()) {
+                    break;
+                }
+            }
+        }
+        catch (IllegalStateException e) {
+            // thrown by results iterables when interrupted
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("interrupted processing results");
+            }
+            throw e;
+        }
+    }
+
+    boolean isWatching() {
+        return watch > 0L;
+    }
+
+    void checkWatchable() {
+        if (resume) {
+            throw new IllegalArgumentException("--watch not supported with --resume");
+        }
+        if (unload) {
+            throw new IllegalArgumentException("--watch not supported with --unload");
+        }
+        if (isIncremental()) {
+            throw new IllegalArgumentException("--watch not supported with --watermark-column");
+        }
+        if (maxRows > 0L) {
+            throw new IllegalArgumentException("--watch not supported with --max-rows");
+        }
+        if (hasMultipleOutputs()) {
+            throw new IllegalArgumentException("--watch not supported with multiple outputs");
+        }
+        if ("tui".equals(resultsFormat) || "parquet".equals(resultsFormat)) {
+            throw new IllegalArgumentException("--watch not supported with " + resultsFormat + " format");
+        }
+    }
+
+    /**
+     * Check that options are supported by the batch command, which submits, polls, and processes
+     * each query on its own, and so rejects options it does not honor rather than ignore them.
+     */
+    void checkBatchable() {
+        if (hasMultipleOutputs()) {
+            throw new IllegalArgumentException("multiple outputs not supported in batch mode");
+        }
+        if ("tui".equals(resultsFormat)) {
+            throw new IllegalArgumentException("tui format not supported in batch mode");
+        }
+        if (isIncremental()) {
+            throw new IllegalArgumentException("--watermark-column not supported in batch mode");
+        }
+        if (watch > 0L) {
+            throw new IllegalArgumentException("--watch not supported in batch mode");
+        }
+        if (maxRows > 0L) {
+            throw new IllegalArgumentException("--max-rows not supported in batch mode");
+        }
+        if (unload) {
+            throw new IllegalArgumentException("--unload not supported in batch mode");
+        }
+        if (resume) {
+            throw new IllegalArgumentException("--resume not supported in batch mode");
+        }
+        if (cache) {
+            throw new IllegalArgumentException("--cache not supported in batch mode");
+        }
+        if (singleFlight) {
+            throw new IllegalArgumentException("--single-flight not supported in batch mode");
+        }
+        if (reuseFromHistory > 0L) {
+            throw new IllegalArgumentException("--reuse-from-history not supported in batch mode");
+        }
+    }
+
+    boolean isIncremental() {
+        return watermarkColumn != null;
+    }
+
+    void checkIncremental() {
+        if (resume) {
+            throw new IllegalArgumentException("--watermark-column not supported with --resume");
+        }
+        if (unload) {
+            throw new IllegalArgumentException("--watermark-column not supported with --unload");
+        }
+        if (maxRows > 0L) {
+            // rows past the limit would fall below the advanced watermark
+            throw new IllegalArgumentException("--watermark-column not supported with --max-rows");
+        }
+        if (hasMultipleOutputs()) {
+            throw new IllegalArgumentException("--watermark-column not supported with multiple outputs");
+        }
+        switch (watermarkOutput) {
+            case "append":
+                if (!("text".equals(resultsFormat) || "tsv".equals(resultsFormat) || "tab-delimited".equals(resultsFormat))) {
+                    throw new IllegalArgumentException("--watermark-output append requires text format, use --watermark-output roll");
+                }
+                if (resultsPath != null) {
+                    String fileName = resultsPath.getFileName().toString().toLowerCase(Locale.ROOT);
+                    for (String extension : COMPRESSED_EXTENSIONS) {
+                        if (fileName.endsWith(extension)) {
+                            throw new IllegalArgumentException("--watermark-output append requires an uncompressed --results-path, use --watermark-output roll");
+                        }
+                    }
+                }
+                break;
+            case "roll":
+                if (resultsPath == null) {
+                    throw new IllegalArgumentException("--watermark-output roll requires --results-path to be set");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("--watermark-output must be one of append or roll, was " + watermarkOutput);
+        }
+    }
+
+    void prepareIncremental() throws IOException {
+        checkIncremental();
+
+        // key default watermark path on the query before the watermark is added
+        if (watermarkPath == null) {
+            watermarkPath = stateDirectory().resolve("watermarks").resolve(fingerprint(query) + ".properties");
+        }
+        Watermark watermark = Watermark.read(watermarkPath);
+        if (watermark != null && !watermark.column().equalsIgnoreCase(watermarkColumn)) {
+            throw new IllegalArgumentException("watermark " + watermarkPath + " is for column " + watermark.column() + ", not " + watermarkColumn);
+        }
+        String value = watermark == null ? initialWatermark : watermark.value();
+        if (value == null) {
+            throw new IllegalArgumentException("no watermark found at " + watermarkPath + ", specify --initial-watermark");
+        }
+        logger.info("Running incremental query from watermark {} {}", watermarkColumn, value);
+        List<String> parameters = executionParameters == null ? new ArrayList<>() : new ArrayList<>(executionParameters);
+        parameters.add(value);
+        executionParameters = parameters;
+
+        if ("roll".equals(watermarkOutput)) {
+            resultsPath = rollResultsPath(resultsPath, Instant.now());
+            logger.info("Writing new rows to {}", resultsPath);
+        }
+    }
+
+    void advanceWatermark() throws IOException {
+        if (watermarkProcessor != null && watermarkProcessor.isDone()) {
+            logger.warn("Results stopped early, output closed, watermark {} unchanged", watermarkPath);
+            return;
+        }
+        String maximum = watermarkProcessor == null ? null : watermarkProcessor.maximum();
+        if (maximum == null) {
+            logger.info("No new rows, watermark {} unchanged", watermarkPath);
+            if ("roll".equals(watermarkOutput)) {
+                Files.deleteIfExists(resultsPath);
+            }
+            return;
+        }
+        new Watermark(watermarkColumn, maximum, Instant.now()).write(watermarkPath);
+        logger.info("Advanced watermark {} {} to {}", watermarkPath, watermarkColumn, maximum);
+    }
+
+    static Path rollResultsPath(final Path resultsPath, final Instant instant) {
+        String timestamp = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC).format(instant);
+        String fileName = resultsPath.getFileName().toString();
+        int dot = fileName.indexOf('.', 1);
+        return resultsPath.resolveSibling(dot < 0 ? fileName + "." + timestamp : fileName.substring(0, dot) + "." + timestamp + fileName.substring(dot));
+    }
+
+    void checkResumable() {
+        if (resultsPath == null) {
+            throw new IllegalArgumentException("--resume requires --results-path to be set");
+        }
+        if (unload) {
+            throw new IllegalArgumentException("--resume not supported with --unload");
+        }
+        if (maxRows > 0L) {
+            throw new IllegalArgumentException("--resume not supported with --max-rows");
+        }
+        if (hasMultipleOutputs()) {
+            throw new IllegalArgumentException("--resume not supported with multiple outputs");
+        }
+        switch (resultsFormat) {
+            case "parquet":
+                break;
+            case "text":
+            case "tsv":
+            case "tab-delimited":
+                String fileName = resultsPath.getFileName().toString().toLowerCase(Locale.ROOT);
+                for (String extension : COMPRESSED_EXTENSIONS) {
+                    if (fileName.endsWith(extension)) {
+                        throw new IllegalArgumentException("--resume requires an uncompressed --results-path for text format");
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("--resume requires text or parquet format");
+        }
+    }
+
+    void processResumableResults(final AthenaClient athenaClient,
+                                 final String queryExecutionId,
+                                 final QueryFingerprint fingerprint) throws SdkException, IOException {
+
+        checkResumable();
+        Path checkpointPath = Checkpoint.path(resultsPath);
+        Checkpoint checkpoint = Checkpoint.read(checkpointPath);
+        if (checkpoint != null && !checkpoint.queryExecutionId().equals(queryExecutionId)) {
+            throw new IOException("checkpoint " + checkpointPath + " is for query execution ID " + checkpoint.queryExecutionId() + ", remove it to start over");
+        }
+        boolean parquet = "parquet".equals(resultsFormat);
+        long position = checkpoint == null ? 0L : checkpoint.position();
+
+        // discard anything written after the checkpoint
+        ResultsProcessor processor;
+        if (parquet) {
+            ParquetPartsFormat.deleteParts(resultsPath, (int) position);
+            processor = new ParquetPartsFormat(resultsPath, (int) position);
+        }
+        else if (checkpoint == null) {
+            processor = skipHeader ? new TabDelimitedFormat(resultsPath) : new TabDelimitedWithHeaderFormat(resultsPath);
+        }
+        else {
+            truncate(resultsPath, position);
+            processor = skipHeader ? new TabDelimitedFormat(resultsPath, true) : new TabDelimitedWithHeaderFormat(resultsPath, true);
+        }
+
+        inFlightQueries.register(processor);
+        try (processor) {
+            if (checkpoint == null || !checkpoint.isComplete()) {
+                if (checkpoint != null) {
+                    logger.info("Resuming results for query execution ID {} at {} {}", queryExecutionId, position, parquet ? "parts" : "bytes");
+                }
+                ResultPages results = new ResultPages(athenaClient, queryExecutionId, checkpoint == null ? null : checkpoint.nextToken(), retryPolicy());
+                if ("prefetch".equals(retrievalMode)) {
+                    try (PrefetchingIterable<GetQueryResultsResponse> prefetched = new PrefetchingIterable<>(results, prefetchDepth)) {
+                        processResumableResults(prefetched, processor, queryExecutionId, fingerprint, checkpointPath, checkpoint == null);
+                    }
+                }
+                else {
+                    if ("s3".equals(retrievalMode)) {
+                        logger.info("Resumable results for query execution ID {} paged, not downloaded from S3", queryExecutionId);
+                    }
+                    else if ("stream".equals(retrievalMode)) {
+                        logger.info("Resumable results for query execution ID {} paged, not streamed", queryExecutionId);
+                    }
+                    processResumableResults(results, processor, queryExecutionId, fingerprint, checkpointPath, checkpoint == null);
+                }
             }
             processor.complete();
         }
+        finally {
+            inFlightQueries.unregister(processor);
+        }
+        Files.deleteIfExists(checkpointPath);
+    }
+
+    void processResumableResults(final Iterable<GetQueryResultsResponse> results,
+                                 final ResultsProcessor processor,
+                                 final String queryExecutionId,
+                                 final QueryFingerprint fingerprint,
+                                 final Path checkpointPath,
+                                 final boolean firstPage) throws IOException {
+        int pages = 0;
+        try {
+            for (GetQueryResultsResponse result : results) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("interrupted processing results");
+                }
+                List<Row> rows = result.resultSet().rows();
+                List<ColumnInfo> columns = result.resultSet().resultSetMetadata().columnInfo();
+                processor.columns(columns);
+                processor.batch(RowBatch.of(columns, rows, firstPage && pages == 0));
+
+                pages++;
+                String nextToken = result.nextToken();
+                if (nextToken == null || pages % Math.max(1, checkpointInterval) == 0) {
+                    processor.flush();
+                    long position = (processor instanceof ParquetPartsFormat) ? ((ParquetPartsFormat) processor).parts()
+                        : (Files.exists(resultsPath) ? Files.size(resultsPath) : 0L);
+                    new Checkpoint(queryExecutionId, fingerprint == null ? null : fingerprint.toString(), nextToken, position, nextToken == null)
+                        .write(checkpointPath);
+                    logger.info("Checkpointed results for query execution ID {} after {} pages", queryExecutionId, pages);
+                }
+            }
+        }
+        catch (IllegalStateException e) {
+            // thrown by results iterables when interrupted
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("interrupted processing results");
+            }
+            throw e;
+        }
+    }
+
+    static void truncate(final Path path, final long size) throws IOException {
+        if (!Files.exists(path)) {
+            if (size == 0L) {
+                return;
+            }
+            throw new IOException("results path " + path + " missing, expected at least " + size + " bytes");
+        }
+        if (Files.size(path) < size) {
+            throw new IOException("results path " + path + " shorter than checkpoint position " + size + " bytes");
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    void processS3Results(final AthenaClient athenaClient,
+                          final String queryExecutionId,
+                          final S3Location resultsLocation,
+                          final ResultsProcessor processor) throws SdkException, IOException {
+
+        // column metadata from the first results call
+        GetQueryResultsRequest request = GetQueryResultsRequest.builder()
+            .queryExecutionId(queryExecutionId)
+            .maxResults(1)
+            .build();
+        GetQueryResultsResponse first = retry("get query results for query execution ID " + queryExecutionId, () -> athenaClient.getQueryResults(request));
+        List<ColumnInfo> columns = first.resultSet().resultSetMetadata().columnInfo();
+
+        Path csv = Files.createTempFile("se-", ".csv");
+        try (S3Client s3Client = createS3Client()) {
+            long bytes = new S3Download(s3Client, downloadThreads, S3Download.DEFAULT_PART_SIZE).download(resultsLocation, csv);
+            logger.info("Downloaded {} bytes of results for query execution ID {} from {}", bytes, queryExecutionId, resultsLocation);
+
+            long records = new AthenaCsvParser(AthenaCsvParser.DEFAULT_BATCH_SIZE, parserThreads, AthenaCsvParser.DEFAULT_CHUNK_SIZE).parse(csv, columns, processor);
+            logger.info("Parsed {} records of results for query execution ID {}", records, queryExecutionId);
+        }
+        finally {
+            Files.deleteIfExists(csv);
+        }
+    }
+
+    S3Location resolveUnloadPrefix(final AthenaClient athenaClient) throws IOException {
+        String location = unloadLocation;
+        if (location == null) {
+            location = outputLocation;
+        }
+        if (location == null) {
+            GetWorkGroupRequest request = GetWorkGroupRequest.builder()
+                .workGroup(workgroup)
+                .build();
+            WorkGroup workGroup = retry("get workgroup " + workgroup, () -> athenaClient.getWorkGroup(request)).workGroup();
+
+            // clients may set the output location instead of the workgroup
+            if (workGroup != null
+                && workGroup.configuration() != null
+                && workGroup.configuration().resultConfiguration() != null) {
+                location = workGroup.configuration().resultConfiguration().outputLocation();
+            }
+        }
+        if (location == null) {
+            throw new IllegalArgumentException("--unload requires --unload-location or --output-location to be set, workgroup " + workgroup + " has no output location configured");
+        }
+        // unload requires an empty prefix
+        return S3Location.parse((location.endsWith("/") ? location : location + "/") + (unloadLocation == null ? "unload/" : "") + UUID.randomUUID() + "/");
+    }
+
+    void downloadUnloadedResults(final S3Location unloadPrefix) throws IOException {
+        try (S3Client s3Client = createS3Client()) {
+            UnloadExport export = new UnloadExport(s3Client, downloadThreads);
+            if (merge) {
+                Path directory = Files.createTempDirectory("se-unload-");
+                Throwable failure = null;
+                try {
+                    List<Path> paths = export.download(unloadPrefix, directory);
+                    if (paths.isEmpty()) {
+                        logger.warn("No unloaded results found at {}", unloadPrefix);
+                    }
+                    else {
+                        UnloadExport.merge(paths, resultsPath);
+                    }
+                }
+                catch (Throwable t) {
+                    failure = t;
+                    throw t;
+                }
+                finally {
+                    // part files are left behind if download or merge fails
+                    try {
+                        UnloadExport.deleteRecursively(directory);
+                    }
+                    catch (IOException e) {
+                        if (failure == null) {
+                            throw e;
+                        }
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+            else {
+                List<Path> paths = export.download(unloadPrefix, resultsPath);
+                logger.info("Downloaded {} unloaded results files to {}", paths.size(), resultsPath);
+            }
+        }
+    }
+
+    synchronized RetryPolicy retryPolicy() {
+        if (retryPolicy == null) {
+            retryPolicy = new RetryPolicy(Math.max(0, maxRetries));
+        }
+        return retryPolicy;
+    }
+
+    <T> T retry(final String description, final RetryPolicy.Call<T> call) throws IOException, SdkException {
+        try {
+            return retryPolicy().execute(description, call);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted trying to " + description, e);
+        }
+    }
+
+    synchronized AwsCredentialsProvider credentialsProvider() {
+        if (credentialsProvider == null) {
+            String profile = CachingCredentialsProvider.profileName();
+            if (credentialCache) {
+                logger.info("Caching credentials for profile {} in {}", profile, stateDirectory().resolve("credentials"));
+            }
+            credentialsProvider = new CachingCredentialsProvider(ProfileCredentialsProvider.create(), profile, credentialCache ? stateDirectory().resolve("credentials") : null);
+        }
+        return credentialsProvider;
+    }
+
+    synchronized SdkHttpClient httpClient() {
+        if (httpClient == null) {
+            httpClient = ApacheHttpClient.builder()
+                .connectionTimeout(Duration.ofSeconds(10L))
+                .build();
+        }
+        return httpClient;
+    }
+
+    synchronized TokenBucket tokenBucket() {
+        if (tokenBucket == null && apiRateLimit > 0.0d) {
+            logger.info("Limiting Athena API calls to {} per second", apiRateLimit);
+            tokenBucket = new TokenBucket(apiRateLimit, Math.max(1.0d, apiRateLimit));
+        }
+        return tokenBucket;
+    }
+
+    S3Client createS3Client() {
+        logger.info("Creating S3 client with profile credentials provider{}", s3Endpoint == null ? "" : " and endpoint " + s3Endpoint);
+        S3ClientBuilder builder = S3Client.builder()
+            .credentialsProvider(credentialsProvider());
+
+        if (s3Endpoint != null) {
+            builder.endpointOverride(s3Endpoint).forcePathStyle(true);
+        }
+        return builder.build();
+    }
+
+    boolean isCaching() {
+        // unloaded results are downloaded as files, not processed
+        return (cache || refreshCache) && !unload;
+    }
+
+    boolean isSingleFlight() {
+        // unload prefixes are unique per process
+        return singleFlight && !unload;
+    }
+
+    SingleFlight createSingleFlight() {
+        return new SingleFlight(stateDirectory().resolve("flights"), Math.max(1L, pollingInterval));
+    }
+
+    QueryFingerprint fingerprint(final String query) {
+        return QueryFingerprint.of(query, executionParameters, catalog, database, workgroup);
+    }
+
+    ResultCache createResultCache() {
+        return new ResultCache(stateDirectory().resolve("cache"), Math.max(1L, cacheTtl), Math.max(1L, cacheMaxSize));
+    }
+
+    MetadataCache createMetadataCache() {
+        // names differ between profiles, accounts, regions, and endpoints
+        return new MetadataCache(stateDirectory().resolve("metadata").resolve(metadataScope()), Math.max(1L, metadataTtl), catalogMetadataTtl);
+    }
+
+    String metadataScope() {
+        String region;
+        try {
+            region = new DefaultAwsRegionProviderChain().getRegion().id();
+        }
+        catch (SdkException e) {
+            region = "default";
+        }
+        String scope = CachingCredentialsProvider.profileName() + "@" + region + (athenaEndpoint == null ? "" : "@" + athenaEndpoint.getAuthority());
+        return URLEncoder.encode(scope, StandardCharsets.UTF_8);
+    }
+
+    Path stateDirectory() {
+        if (stateDirectory == null) {
+            stateDirectory = Path.of(System.getProperty("user.home"), DEFAULT_STATE_DIRECTORY);
+        }
+        return stateDirectory;
+    }
+
+    String catalog() {
+        return catalog;
+    }
+
+    String database() {
+        return database;
+    }
+
+    String workgroup() {
+        return workgroup;
+    }
+
+    long pollingInterval() {
+        return pollingInterval;
+    }
+
+    URI athenaEndpoint() {
+        return athenaEndpoint;
+    }
+
+    double apiRateLimit() {
+        return apiRateLimit;
+    }
+
+    int maxRetries() {
+        return maxRetries;
+    }
+
+    boolean credentialCache() {
+        return credentialCache;
+    }
+
+    String resultsFormat() {
+        return resultsFormat;
+    }
+
+    /**
+     * Pair up repeated <code>--format</code> and <code>--results-path</code> options by position into
+     * outputs, the first of which is also used where only one output is supported.  A missing format
+     * defaults to text and a missing results path to <code>&lt;stdout&gt;</code>.
+     */
+    void resolveOutputs() {
+        int formats = resultsFormats == null ? 0 : resultsFormats.size();
+        int paths = resultsPaths == null ? 0 : resultsPaths.size();
+        outputFormats.clear();
+        outputPaths.clear();
+        for (int i = 0, size = Math.max(1, Math.max(formats, paths)); i < size; i++) {
+            String format = i < formats ? resultsFormats.get(i) : DEFAULT_RESULTS_FORMAT;
+            Path path = i < paths ? resultsPaths.get(i) : null;
+            if (outputPaths.contains(path)) {
+                throw new IllegalArgumentException("multiple outputs must not share a results path, was " + (path == null ? "<stdout>" : path));
+            }
+            if (i > 0 && ("tui".equals(format) || "tui".equals(outputFormats.get(0)))) {
+                throw new IllegalArgumentException("tui format not supported with multiple outputs");
+            }
+            outputFormats.add(format);
+            outputPaths.add(path);
+        }
+        resultsFormat = outputFormats.get(0);
+        resultsPath = outputPaths.get(0);
+    }
+
+    boolean hasMultipleOutputs() {
+        return outputFormats.size() > 1;
+    }
+
+    void appendHistory(final String query) {
+        if (!skipHistory) {
+            historyFile().append(query);
+        }
+    }
+
+    synchronized HistoryFile historyFile() {
+        if (historyFile == null) {
+            historyFile = new HistoryFile(stateDirectory());
+        }
+        return historyFile;
+    }
+
+    synchronized QueryHistory queryHistory() {
+        if (queryHistory == null) {
+            queryHistory = new QueryHistory(stateDirectory().resolve(QueryHistory.DEFAULT_FILE_NAME));
+        }
+        return queryHistory;
+    }
+
+    void recordHistory(final String query,
+                       final String queryExecutionId,
+                       final String state,
+                       final Long dataScannedInBytes,
+                       final long wallTime) {
+        if (!skipHistory) {
+            try {
+                queryHistory().append(new QueryHistory.Entry(Instant.now(), fingerprint(query), queryExecutionId, workgroup, state, dataScannedInBytes, wallTime, query));
+            }
+            catch (IOException e) {
+                logger.warn("Could not write to query history, caught I/O exception", e);
+            }
+        }
+    }
+
+    ResultsProcessor createResultsProcessor() throws IOException {
+        ResultsProcessor processor = createUnlimitedResultsProcessor();
+        return maxRows > 0L ? new LimitingResultsProcessor(maxRows, processor) : processor;
+    }
+
+    ResultsProcessor createUnlimitedResultsProcessor() throws IOException {
+        if (isWatching()) {
+            if (watchSnapshot == null) {
+                watchProcessor = new WatchResultsProcessor(createProcessor(resultsPath), resultsPath != null);
+            }
+            else {
+                if (watchWriter == null) {
+                    watchWriter = resultsPath == null ? new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))
+                        : new PrintWriter(Files.newBufferedWriter(resultsPath, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+                }
+                watchProcessor = new WatchResultsProcessor(watchSnapshot, watchWriter);
+            }
+            return watchProcessor;
+        }
+        if (hasMultipleOutputs()) {
+            List<ResultsProcessor> processors = new ArrayList<>(outputFormats.size());
+            try {
+                for (int i = 0, size = outputFormats.size(); i < size; i++) {
+                    processors.add(createProcessor(outputFormats.get(i), outputPaths.get(i)));
+                }
+            }
+            catch (RuntimeException e) {
+                processors.forEach(ResultsProcessor::close);
+                throw e;
+            }
+            logger.info("Writing results to {} outputs", processors.size());
+            return new FanOutResultsProcessor(processors);
+        }
+        if (!isIncremental()) {
+            return createProcessor(resultsPath);
+        }
+        ResultsProcessor processor;
+        if ("append".equals(watermarkOutput)) {
+            boolean append = resultsPath != null && Files.exists(resultsPath) && Files.size(resultsPath) > 0L;
+            processor = skipHeader ? new TabDelimitedFormat(resultsPath, append) : new TabDelimitedWithHeaderFormat(resultsPath, append);
+        }
+        else {
+            processor = createProcessor(resultsPath);
+        }
+        watermarkProcessor = new WatermarkResultsProcessor(watermarkColumn, processor);
+        return watermarkProcessor;
+    }
+
+    ResultsProcessor createProcessor(final Path resultsPath) {
+        return createProcessor(resultsFormat, resultsPath);
     }
 
-    ResultsProcessor createProcessor() {
+    ResultsProcessor createProcessor(final String resultsFormat, final Path resultsPath) {
         switch (resultsFormat) {
             case "parquet":
                 // todo: move this check earlier?
@@ -0,0 +1,254 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.nio.file.attribute.PosixFilePermissions;
+
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cross-process single-flight for identical concurrent queries.
+ *
+ * <p>
+ * The first process to lock the lock file for a query fingerprint is the leader, which submits
+ * the query and publishes its query execution ID to an ID file alongside the lock file.  Later processes
+ * are followers, which wait for the ID file and then attach to the same query execution.
+ * </p>
+ *
+ * <p>
+ * File locks are released by the operating system when a process exits, so a lock file left behind
+ * by a process that crashed is never mistaken for a live leader.  A new leader removes any ID file
+ * left behind before submitting the query again, and a leader removes its ID file before releasing its lock.
+ * </p>
+ *
+ * <p>
+ * Once followers may be attached, the leader no longer stops the query execution on interruption,
+ * timeout, or budget.  A follower whose query execution is canceled anyway, e.g. from the console,
+ * joins the flight again, following a new leader or leading the flight itself.
+ * </p>
+ */
+final class SingleFlight {
+    private final Path directory;
+    private final long interval;
+    static final String LOCK_SUFFIX = ".lock";
+    static final String ID_SUFFIX = ".id";
+    static final Logger logger = LoggerFactory.getLogger(SingleFlight.class);
+
+
+    /**
+     * Create a new single-flight.
+     *
+     * @param directory lock directory, must not be null
+     * @param interval interval in milliseconds between attempts to lock or read the query execution ID, must be greater than zero
+     */
+    SingleFlight(final Path directory, final long interval) {
+        checkNotNull(directory);
+        checkArgument(interval > 0L, "interval must be greater than zero");
+        this.directory = directory;
+        this.interval = interval;
+    }
+
+
+    /**
+     * Join the flight for the specified query fingerprint, either as leader or as follower,
+     * waiting until the leader has published its query execution ID if necessary.
+     *
+     * @param fingerprint query fingerprint, must not be null
+     * @return the flight for the specified query fingerprint
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if interrupted while waiting
+     */
+    Flight join(final QueryFingerprint fingerprint) throws IOException, InterruptedException {
+        return join(fingerprint, null);
+    }
+
+    /**
+     * Join the flight for the specified query fingerprint, either as leader or as follower,
+     * waiting until the leader has published a query execution ID other than the specified
+     * canceled query execution ID if necessary.
+     *
+     * @param fingerprint query fingerprint, must not be null
+     * @param canceled canceled query execution ID not to follow again, if any
+     * @return the flight for the specified query fingerprint
+     * @throws IOException if an I/O error occurs
+     * @throws InterruptedException if interrupted while waiting
+     */
+    Flight join(final QueryFingerprint fingerprint, final String canceled) throws IOException, InterruptedException {
+        checkNotNull(fingerprint);
+        if (!Files.isDirectory(directory)) {
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        }
+        Path lockPath = directory.resolve(fingerprint + LOCK_SUFFIX);
+        Path idPath = directory.resolve(fingerprint + ID_SUFFIX);
+        FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            boolean waiting = false;
+            while (true) {
+                FileLock lock = tryLock(channel);
+                if (lock != null) {
+                    if (Files.deleteIfExists(idPath)) {
+                        logger.info("Removed query execution ID file {} left behind by previous leader", idPath);
+                    }
+                    logger.info("Leading single-flight for query fingerprint {}", fingerprint);
+                    return new Flight(channel, lock, idPath, null);
+                }
+                String queryExecutionId = readId(idPath);
+                // the leader of a canceled query execution removes its ID file when it exits
+                if (queryExecutionId != null && !queryExecutionId.equals(canceled)) {
+                    logger.info("Following single-flight for query fingerprint {}, attaching to query execution ID {}", fingerprint, queryExecutionId);
+                    channel.close();
+                    return new Flight(null, null, idPath, queryExecutionId);
+                }
+                if (!waiting) {
+                    logger.info("Waiting for single-flight leader for query fingerprint {} to submit query", fingerprint);
+                    waiting = true;
+                }
+                Thread.sleep(interval);
+            }
+        }
+        catch (IOException | InterruptedException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static FileLock tryLock(final FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        }
+        catch (OverlappingFileLockException e) {
+            // held by this process
+            return null;
+        }
+    }
+
+    private static String readId(final Path idPath) throws IOException {
+        try {
+            String id = new String(Files.readAllBytes(idPath), StandardCharsets.UTF_8).trim();
+            return id.isEmpty() ? null : id;
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Single-flight for a query fingerprint.
+     */
+    static final class Flight implements AutoCloseable {
+        private final FileChannel channel;
+        private final FileLock lock;
+        private final Path idPath;
+        private final String queryExecutionId;
+        private boolean published = false;
+
+
+        private Flight(final FileChannel channel, final FileLock lock, final Path idPath, final String queryExecutionId) {
+            this.channel = channel;
+            this.lock = lock;
+            this.idPath = idPath;
+            this.queryExecutionId = queryExecutionId;
+        }
+
+
+        /**
+         * Return true if this process leads this flight.
+         *
+         * @return true if this process leads this flight
+         */
+        boolean isLeader() {
+            return lock != null;
+        }
+
+        /**
+         * Return the query execution ID published by the leader of this flight, if this process follows this flight.
+         *
+         * @return the query execution ID published by the leader of this flight, or <code>null</code> if this process leads this flight
+         */
+        String queryExecutionId() {
+            return queryExecutionId;
+        }
+
+        /**
+         * Publish the specified query execution ID to followers of this flight.
+         *
+         * @param queryExecutionId query execution ID to publish, must not be null
+         * @throws IOException if an I/O error occurs
+         */
+        void publish(final String queryExecutionId) throws IOException {
+            checkNotNull(queryExecutionId);
+            if (!isLeader()) {
+                throw new IllegalStateException("only the leader may publish a query execution ID");
+            }
+            // write and rename, so followers never read a partial ID
+            Path temp = idPath.resolveSibling(idPath.getFileName() + "." + UUID.randomUUID());
+            Files.write(temp, queryExecutionId.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temp, idPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, idPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            published = true;
+        }
+
+        @Override
+        public void close() {
+            if (!isLeader()) {
+                return;
+            }
+            try {
+                if (published) {
+                    Files.deleteIfExists(idPath);
+                }
+            }
+            catch (IOException e) {
+                logger.warn("Could not remove query execution ID file {}", idPath, e);
+            }
+            finally {
+                try {
+                    lock.release();
+                    channel.close();
+                }
+                catch (IOException e) {
+                    logger.warn("Could not release single-flight lock, caught I/O exception", e);
+                }
+            }
+        }
+    }
+}
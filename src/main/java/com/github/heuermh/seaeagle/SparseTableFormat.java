@@ -23,8 +23,6 @@ import java.util.ArrayList;
 import java.util.List;
 
 import software.amazon.awssdk.services.athena.model.ColumnInfo;
-import software.amazon.awssdk.services.athena.model.Datum;
-import software.amazon.awssdk.services.athena.model.Row;
 
 /**
  * Sparse table format.
@@ -55,15 +53,28 @@ class SparseTableFormat extends TabDelimitedFormat {
     }
 
     @Override
-    void rows(final List<ColumnInfo> columns, final List<Row> rows) {
-        for (Row row : rows) {
-            if (seenHeaderRow || !isHeaderRow(columns, row)) {
-                List<String> rowValues = new ArrayList<>(row.data().size());
-                for (Datum datum : row.data()) {
-                    rowValues.add(datum.varCharValue());
-                }
-                table.addRow(rowValues);
+    Object prepare(final RowBatch batch) {
+        List<List<String>> rows = new ArrayList<>(batch.size());
+        for (int r = 0, size = batch.size(), columns = batch.columnCount(); r < size; r++) {
+            List<String> rowValues = new ArrayList<>(columns);
+            for (int c = 0; c < columns; c++) {
+                rowValues.add(batch.getString(c, r));
             }
+            rows.add(rowValues);
+        }
+        return rows;
+    }
+
+    @Override
+    void batch(final RowBatch batch) {
+        batch(batch, prepare(batch));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    void batch(final RowBatch batch, final Object prepared) {
+        for (List<String> rowValues : (List<List<String>>) prepared) {
+            table.addRow(rowValues);
         }
     }
 
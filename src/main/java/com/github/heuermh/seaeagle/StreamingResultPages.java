@@ -0,0 +1,536 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.net.URI;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+
+import software.amazon.awssdk.awscore.endpoint.DualstackEnabledProvider;
+import software.amazon.awssdk.awscore.endpoint.FipsEnabledProvider;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+
+import software.amazon.awssdk.core.exception.AbortedException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkException;
+
+import software.amazon.awssdk.core.util.SdkUserAgent;
+
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.http.ContentStreamProvider;
+import software.amazon.awssdk.http.HttpExecuteRequest;
+import software.amazon.awssdk.http.HttpExecuteResponse;
+import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.SdkHttpRequest;
+
+import software.amazon.awssdk.http.auth.aws.signer.AwsV4HttpSigner;
+
+import software.amazon.awssdk.http.auth.spi.signer.SignedRequest;
+
+import software.amazon.awssdk.regions.Region;
+
+import software.amazon.awssdk.services.athena.endpoints.AthenaEndpointParams;
+import software.amazon.awssdk.services.athena.endpoints.AthenaEndpointProvider;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+
+/**
+ * Pages of query results, fetched one page at a time with retries and decoded as they stream in.
+ *
+ * <p>
+ * <code>GetQueryResults</code> is signed with the AWS SDK SigV4 signer and sent with an AWS SDK HTTP
+ * client, and the JSON response body is decoded with a streaming parser into column buffers of strings,
+ * without unmarshalling a <code>Row</code> and a <code>Datum</code> for every value.  As with
+ * {@link ResultPages}, a page that fails with a retryable error is fetched again with the last good
+ * <code>NextToken</code>, and each attempt takes a token from the API rate limit token bucket, if any.
+ * </p>
+ */
+final class StreamingResultPages implements Iterable<RowBatch> {
+    private final SdkHttpClient httpClient;
+    private final URI endpoint;
+    private final AwsCredentialsProvider credentialsProvider;
+    private final String region;
+    private final TokenBucket tokenBucket;
+    private final String queryExecutionId;
+    private final String nextToken;
+    private final RetryPolicy retryPolicy;
+
+    /** Athena JSON protocol content type. */
+    static final String CONTENT_TYPE = "application/x-amz-json-1.1";
+
+    /** <code>GetQueryResults</code> target. */
+    static final String TARGET = "AmazonAthena.GetQueryResults";
+
+    /** Athena signing name. */
+    static final String SIGNING_NAME = "athena";
+
+    /** Shared SigV4 signer, thread safe. */
+    private static final AwsV4HttpSigner SIGNER = AwsV4HttpSigner.create();
+
+    /** User agent, the AWS SDK user agent. */
+    private static final String USER_AGENT = SdkUserAgent.create().userAgent();
+
+    /** Shared JSON factory, thread safe once configured. */
+    private static final JsonFactory JSON = new JsonFactory();
+
+    /** Initial column buffer capacity, grown by doubling. */
+    private static final int INITIAL_CAPACITY = 128;
+
+
+    /**
+     * Create new streaming result pages.
+     *
+     * @param httpClient HTTP client, must not be null
+     * @param endpoint Athena endpoint, must not be null
+     * @param credentialsProvider credentials provider, must not be null
+     * @param region signing region, must not be null
+     * @param tokenBucket API rate limit token bucket, if any
+     * @param queryExecutionId query execution ID, must not be null
+     * @param nextToken token of the first page to fetch, if any
+     * @param retryPolicy retry policy, must not be null
+     */
+    StreamingResultPages(final SdkHttpClient httpClient,
+                         final URI endpoint,
+                         final AwsCredentialsProvider credentialsProvider,
+                         final String region,
+                         final TokenBucket tokenBucket,
+                         final String queryExecutionId,
+                         final String nextToken,
+                         final RetryPolicy retryPolicy) {
+        checkNotNull(httpClient);
+        checkNotNull(endpoint);
+        checkNotNull(credentialsProvider);
+        checkNotNull(region);
+        checkNotNull(queryExecutionId);
+        checkNotNull(retryPolicy);
+        this.httpClient = httpClient;
+        this.endpoint = endpoint;
+        this.credentialsProvider = credentialsProvider;
+        this.region = region;
+        this.tokenBucket = tokenBucket;
+        this.queryExecutionId = queryExecutionId;
+        this.nextToken = nextToken;
+        this.retryPolicy = retryPolicy;
+    }
+
+
+    @Override
+    public Iterator<RowBatch> iterator() {
+        return new Iterator<RowBatch>() {
+            private String token = nextToken;
+            private boolean firstPage = (nextToken == null);
+            private boolean done = false;
+
+            @Override
+            public boolean hasNext() {
+                return !done;
+            }
+
+            @Override
+            public RowBatch next() {
+                if (done) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    Page page = retryPolicy.execute("get query results for query execution ID " + queryExecutionId,
+                                                    () -> fetch(token, firstPage));
+                    token = page.nextToken();
+                    firstPage = false;
+                    done = (token == null);
+                    return page.batch();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted getting query results for query execution ID " + queryExecutionId, e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Fetch and decode the page of results for the specified token.
+     *
+     * @param token token of the page to fetch, if any
+     * @param firstPage true if the page to fetch is the first page of results
+     * @return the page of results for the specified token
+     * @throws SdkException if an error occurs
+     */
+    private Page fetch(final String token, final boolean firstPage) throws SdkException {
+        try {
+            if (tokenBucket != null) {
+                tokenBucket.acquire();
+            }
+            byte[] body = requestBody(queryExecutionId, token);
+            SdkHttpRequest request = SdkHttpRequest.builder()
+                .method(SdkHttpMethod.POST)
+                .uri(endpoint)
+                .putHeader("Content-Type", CONTENT_TYPE)
+                .putHeader("Content-Length", String.valueOf(body.length))
+                .putHeader("X-Amz-Target", TARGET)
+                .putHeader("User-Agent", USER_AGENT)
+                .build();
+
+            SignedRequest signed = SIGNER.sign(r -> r
+                                               .identity(credentialsProvider.resolveCredentials())
+                                               .request(request)
+                                               .payload(ContentStreamProvider.fromByteArray(body))
+                                               .putProperty(AwsV4HttpSigner.SERVICE_SIGNING_NAME, SIGNING_NAME)
+                                               .putProperty(AwsV4HttpSigner.REGION_NAME, region));
+
+            HttpExecuteResponse response = httpClient.prepareRequest(HttpExecuteRequest.builder()
+                                                                     .request(signed.request())
+                                                                     .contentStreamProvider(signed.payload().orElse(null))
+                                                                     .build()).call();
+
+            int statusCode = response.httpResponse().statusCode();
+            try (InputStream inputStream = response.responseBody().orElseGet(() -> AbortableInputStream.create(InputStream.nullInputStream()))) {
+                if (statusCode != 200) {
+                    throw error(statusCode, response.httpResponse().firstMatchingHeader("x-amzn-RequestId").orElse(null), inputStream);
+                }
+                return decode(inputStream, firstPage);
+            }
+        }
+        catch (IOException e) {
+            throw SdkClientException.create("could not get query results for query execution ID " + queryExecutionId, e);
+        }
+        catch (InterruptedException e) {
+            // not retried, the retry policy rethrows as interrupted
+            Thread.currentThread().interrupt();
+            throw AbortedException.create("interrupted waiting for API rate limit", e);
+        }
+    }
+
+    /**
+     * Resolve the Athena endpoint for the specified region with the AWS SDK endpoint provider,
+     * honoring FIPS and dual-stack endpoint settings from the environment and profile.
+     *
+     * @param region region, must not be null
+     * @param endpointOverride endpoint override, if any
+     * @return the Athena endpoint for the specified region
+     */
+    static URI endpoint(final String region, final URI endpointOverride) {
+        checkNotNull(region);
+        AthenaEndpointParams.Builder params = AthenaEndpointParams.builder()
+            .region(Region.of(region))
+            .useFips(FipsEnabledProvider.builder().build().isFipsEnabled().orElse(false))
+            .useDualStack(DualstackEnabledProvider.builder().build().isDualstackEnabled().orElse(false));
+
+        if (endpointOverride != null) {
+            params.endpoint(endpointOverride.toString());
+        }
+        return AthenaEndpointProvider.defaultProvider().resolveEndpoint(params.build()).join().url();
+    }
+
+    /**
+     * Return a <code>GetQueryResults</code> request body for the specified query execution ID and token.
+     *
+     * @param queryExecutionId query execution ID, must not be null
+     * @param token token of the page to fetch, if any
+     * @return a <code>GetQueryResults</code> request body for the specified query execution ID and token
+     * @throws IOException if an I/O error occurs
+     */
+    static byte[] requestBody(final String queryExecutionId, final String token) throws IOException {
+        checkNotNull(queryExecutionId);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (JsonGenerator generator = JSON.createGenerator(outputStream)) {
+            generator.writeStartObject();
+            generator.writeStringField("QueryExecutionId", queryExecutionId);
+            if (token != null) {
+                generator.writeStringField("NextToken", token);
+            }
+            generator.writeEndObject();
+        }
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Decode a page of results from the specified <code>GetQueryResults</code> response body.
+     *
+     * @param inputStream response body, must not be null
+     * @param firstPage true if the response body is the first page of results, and so may start with a header row
+     * @return a page of results decoded from the specified response body
+     * @throws IOException if an I/O error occurs or the response body is not in the expected format
+     */
+    static Page decode(final InputStream inputStream, final boolean firstPage) throws IOException {
+        checkNotNull(inputStream);
+        List<ColumnInfo> columns = new ArrayList<>();
+        ColumnBuffers buffers = new ColumnBuffers();
+        String token = null;
+
+        try (JsonParser parser = JSON.createParser(inputStream)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("NextToken".equals(name)) {
+                    token = parser.getValueAsString();
+                }
+                else if ("ResultSet".equals(name) && value == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.currentName();
+                        JsonToken fieldValue = parser.nextToken();
+                        if ("Rows".equals(field) && fieldValue == JsonToken.START_ARRAY) {
+                            decodeRows(parser, buffers);
+                        }
+                        else if ("ResultSetMetadata".equals(field) && fieldValue == JsonToken.START_OBJECT) {
+                            decodeMetadata(parser, columns);
+                        }
+                        else {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+            expect(parser, parser.currentToken(), JsonToken.END_OBJECT);
+        }
+        return new Page(RowBatch.of(columns, buffers.values, buffers.rows, firstPage), token);
+    }
+
+    private static void decodeRows(final JsonParser parser, final ColumnBuffers buffers) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                JsonToken value = parser.nextToken();
+                if ("Data".equals(parser.currentName()) && value == JsonToken.START_ARRAY) {
+                    int column = 0;
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        String varCharValue = null;
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            JsonToken datum = parser.nextToken();
+                            if ("VarCharValue".equals(parser.currentName()) && datum == JsonToken.VALUE_STRING) {
+                                varCharValue = parser.getText();
+                            }
+                            else {
+                                parser.skipChildren();
+                            }
+                        }
+                        buffers.set(column++, varCharValue);
+                    }
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+            buffers.endRow();
+        }
+    }
+
+    private static void decodeMetadata(final JsonParser parser, final List<ColumnInfo> columns) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            JsonToken value = parser.nextToken();
+            if ("ColumnInfo".equals(parser.currentName()) && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    ColumnInfo.Builder column = ColumnInfo.builder();
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.currentName();
+                        JsonToken fieldValue = parser.nextToken();
+                        if (fieldValue == JsonToken.VALUE_NULL) {
+                            continue;
+                        }
+                        switch (field) {
+                            case "CatalogName":
+                                column.catalogName(parser.getValueAsString());
+                                break;
+                            case "SchemaName":
+                                column.schemaName(parser.getValueAsString());
+                                break;
+                            case "TableName":
+                                column.tableName(parser.getValueAsString());
+                                break;
+                            case "Name":
+                                column.name(parser.getValueAsString());
+                                break;
+                            case "Label":
+                                column.label(parser.getValueAsString());
+                                break;
+                            case "Type":
+                                column.type(parser.getValueAsString());
+                                break;
+                            case "Precision":
+                                column.precision(parser.getIntValue());
+                                break;
+                            case "Scale":
+                                column.scale(parser.getIntValue());
+                                break;
+                            case "Nullable":
+                                column.nullable(parser.getValueAsString());
+                                break;
+                            case "CaseSensitive":
+                                column.caseSensitive(parser.getBooleanValue());
+                                break;
+                            default:
+                                parser.skipChildren();
+                        }
+                    }
+                    columns.add(column.build());
+                }
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void expect(final JsonParser parser, final JsonToken actual, final JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("GetQueryResults response not in expected format, expected " + expected + " found " + actual
+                                  + " at " + parser.currentLocation());
+        }
+    }
+
+    /**
+     * Return an AWS service exception for the specified error response.
+     *
+     * @param statusCode HTTP status code
+     * @param requestId request ID, if any
+     * @param inputStream error response body
+     * @return an AWS service exception for the specified error response
+     */
+    static AwsServiceException error(final int statusCode, final String requestId, final InputStream inputStream) {
+        String errorCode = null;
+        String errorMessage = null;
+        try (JsonParser parser = JSON.createParser(inputStream)) {
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.currentName();
+                    parser.nextToken();
+                    if ("__type".equals(name)) {
+                        errorCode = parser.getValueAsString();
+                    }
+                    else if ("message".equalsIgnoreCase(name)) {
+                        errorMessage = parser.getValueAsString();
+                    }
+                    else {
+                        parser.skipChildren();
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            // error response body not in JSON format, status code only
+        }
+        // e.g. com.amazonaws.athena#ThrottlingException
+        if (errorCode != null && errorCode.contains("#")) {
+            errorCode = errorCode.substring(errorCode.lastIndexOf('#') + 1);
+        }
+        String message = (errorMessage == null ? "HTTP status code " + statusCode : errorMessage)
+            + " (Service: Athena, Status Code: " + statusCode + ", Request ID: " + requestId + ")";
+        return AwsServiceException.builder()
+            .awsErrorDetails(AwsErrorDetails.builder()
+                             .errorCode(errorCode)
+                             .errorMessage(errorMessage)
+                             .serviceName("Athena")
+                             .build())
+            .statusCode(statusCode)
+            .requestId(requestId)
+            .message(message)
+            .build();
+    }
+
+
+    /**
+     * Page of results.
+     */
+    static final class Page {
+        private final RowBatch batch;
+        private final String nextToken;
+
+
+        /**
+         * Create a new page of results.
+         *
+         * @param batch batch of rows
+         * @param nextToken token of the next page, if any
+         */
+        Page(final RowBatch batch, final String nextToken) {
+            this.batch = batch;
+            this.nextToken = nextToken;
+        }
+
+
+        /**
+         * Return the batch of rows for this page.
+         *
+         * @return the batch of rows for this page
+         */
+        RowBatch batch() {
+            return batch;
+        }
+
+        /**
+         * Return the token of the next page, if any.
+         *
+         * @return the token of the next page, or <code>null</code> if this is the last page
+         */
+        String nextToken() {
+            return nextToken;
+        }
+    }
+
+
+    /**
+     * Column buffers of values, one per column, grown by doubling.
+     */
+    private static final class ColumnBuffers {
+        private String[][] values = new String[0][];
+        private int capacity = INITIAL_CAPACITY;
+        private int rows = 0;
+
+
+        void set(final int column, final String value) {
+            if (column >= values.length) {
+                int width = values.length;
+                values = Arrays.copyOf(values, column + 1);
+                for (int c = width; c <= column; c++) {
+                    values[c] = new String[capacity];
+                }
+            }
+            values[column][rows] = value;
+        }
+
+        void endRow() {
+            rows++;
+            if (rows == capacity) {
+                capacity *= 2;
+                for (int c = 0; c < values.length; c++) {
+                    values[c] = Arrays.copyOf(values[c], capacity);
+                }
+            }
+        }
+    }
+}
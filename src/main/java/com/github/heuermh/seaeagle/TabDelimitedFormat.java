@@ -20,64 +20,85 @@ import static org.dishevelled.compress.Writers.writer;
 import java.io.IOException;
 import java.io.PrintWriter;
 
-import java.nio.file.Path;
-
-import java.util.Iterator;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
 
-import software.amazon.awssdk.services.athena.model.ColumnInfo;
-import software.amazon.awssdk.services.athena.model.Datum;
-import software.amazon.awssdk.services.athena.model.Row;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Tab delimited format.
  */
 class TabDelimitedFormat extends ResultsProcessor {
     private final Path resultsPath;
+    private final boolean append;
     private PrintWriter writer;
-    protected boolean seenHeaderRow = false;
+    private boolean closed = false;
 
     TabDelimitedFormat(final Path resultsPath) {
+        this(resultsPath, false);
+    }
+
+    TabDelimitedFormat(final Path resultsPath, final boolean append) {
         this.resultsPath = resultsPath;
+        this.append = append;
     }
 
     protected final PrintWriter getWriter() throws IOException {
         if (writer == null) {
-            writer = writer(resultsPath);
+            if (append) {
+                writer = new PrintWriter(Files.newBufferedWriter(resultsPath, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+            }
+            else {
+                writer = writer(resultsPath);
+            }
         }
         return writer;
     }
 
-    // sigh... 
-    protected final boolean isHeaderRow(final List<ColumnInfo> columns, final Row row) {
-        if (columns.isEmpty()) {
-            return false;
-        }
-        if (row.data().isEmpty()) {
-            return false;
+    @Override
+    Object prepare(final RowBatch batch) {
+        // same line separator as println
+        String lineSeparator = System.lineSeparator();
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0, size = batch.size(), columns = batch.columnCount(); r < size; r++) {
+            for (int c = 0; c < columns; c++) {
+                if (c > 0) {
+                    sb.append("\t");
+                }
+                sb.append(batch.getString(c, r));
+            }
+            sb.append(lineSeparator);
         }
-        String firstColumnName = columns.get(0).name();
-        String firstRowValue = row.data().get(0).varCharValue();
+        return sb.toString();
+    }
+
+    @Override
+    void batch(final RowBatch batch) throws IOException {
+        batch(batch, prepare(batch));
+    }
+
+    @Override
+    void batch(final RowBatch batch, final Object prepared) throws IOException {
+        getWriter().print((String) prepared);
 
-        if (firstColumnName.equals(firstRowValue)) {
-            seenHeaderRow = true;
-            return true;
+        // PrintWriter and PrintStream swallow errors, e.g. a broken pipe when stdout is closed downstream
+        if (resultsPath == null && (writer.checkError() || System.out.checkError())) {
+            closed = true;
         }
-        return false;
     }
 
     @Override
-    void rows(final List<ColumnInfo> columns, final List<Row> rows) throws IOException {
-        for (Row row : rows) {
-            if (seenHeaderRow || !isHeaderRow(columns, row)) {
-                StringBuilder sb = new StringBuilder();
-                for (Iterator<Datum> it = row.data().iterator(); it.hasNext(); ) {
-                    sb.append(it.next().varCharValue());
-                    if (it.hasNext()) {
-                        sb.append("\t");
-                    }
-                }
-                getWriter().println(sb);
+    boolean isDone() {
+        return closed;
+    }
+
+    @Override
+    void flush() throws IOException {
+        if (writer != null) {
+            writer.flush();
+            if (writer.checkError()) {
+                throw new IOException("could not write results to " + (resultsPath == null ? "<stdout>" : resultsPath));
             }
         }
     }
@@ -31,7 +31,13 @@ class TabDelimitedWithHeaderFormat extends TabDelimitedFormat {
     private boolean wroteHeader = false;
 
     TabDelimitedWithHeaderFormat(final Path resultsPath) {
-        super(resultsPath);
+        this(resultsPath, false);
+    }
+
+    TabDelimitedWithHeaderFormat(final Path resultsPath, final boolean append) {
+        super(resultsPath, append);
+        // header already written to appended results
+        this.wroteHeader = append;
     }
 
     @Override
@@ -0,0 +1,72 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Token bucket rate limiter.
+ */
+final class TokenBucket {
+    private final double rate;
+    private final double capacity;
+    private double tokens;
+    private long last;
+
+
+    /**
+     * Create a new token bucket with the specified rate and capacity.
+     *
+     * @param rate rate at which tokens are added, in tokens per second, must be greater than zero
+     * @param capacity maximum number of tokens, must be at least one
+     */
+    TokenBucket(final double rate, final double capacity) {
+        checkArgument(rate > 0.0d, "rate must be greater than zero");
+        checkArgument(capacity >= 1.0d, "capacity must be at least one");
+        this.rate = rate;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.last = System.nanoTime();
+    }
+
+
+    /**
+     * Acquire a token, blocking until one is available.
+     *
+     * @throws InterruptedException if interrupted while waiting for a token
+     */
+    void acquire() throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            refill();
+            tokens -= 1.0d;
+            // a negative balance reserves the token, and the caller waits for it to accrue
+            wait = tokens >= 0.0d ? 0L : (long) Math.ceil((-tokens / rate) * 1000000000.0d);
+        }
+        if (wait > 0L) {
+            Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+        }
+    }
+
+    /**
+     * Add tokens accrued since the last refill.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + ((now - last) / 1000000000.0d) * rate);
+        last = now;
+    }
+}
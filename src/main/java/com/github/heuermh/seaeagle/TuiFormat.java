@@ -45,8 +45,6 @@ import dev.tamboui.widgets.block.Title;
 import dev.tamboui.widgets.paragraph.Paragraph;
 
 import software.amazon.awssdk.services.athena.model.ColumnInfo;
-import software.amazon.awssdk.services.athena.model.Datum;
-import software.amazon.awssdk.services.athena.model.Row;
 
 import com.google.common.collect.HashBasedTable;
 
@@ -55,7 +53,6 @@ import com.google.common.collect.HashBasedTable;
  */
 class TuiFormat extends ResultsProcessor {
     private boolean seenHeader = false;
-    private boolean seenHeaderRow = false;
     private List<String> columnNames;
     private List<Alignment> columnAlignments;
     private final TableState tableState = new TableState();
@@ -79,34 +76,14 @@ class TuiFormat extends ResultsProcessor {
         }
     }
 
-    // sigh... 
-    protected final boolean isHeaderRow(final List<ColumnInfo> columns, final Row row) {
-        if (columns.isEmpty()) {
-            return false;
-        }
-        if (row.data().isEmpty()) {
-            return false;
-        }
-        String firstColumnName = columns.get(0).name();
-        String firstRowValue = row.data().get(0).varCharValue();
-
-        if (firstColumnName.equals(firstRowValue)) {
-            seenHeaderRow = true;
-            return true;
-        }
-        return false;
-    }
-
     @Override
-    void rows(final List<ColumnInfo> columns, final List<Row> rows) {
-        for (Row row : rows) {
-            if (seenHeaderRow || !isHeaderRow(columns, row)) {
-                int columnIndex = 0;
-                int rowIndex = tableModel.rowKeySet().size();
-                for (Datum datum : row.data()) {
-                    tableModel.put(rowIndex, columnNames.get(columnIndex), datum.varCharValue());
-                    columnIndex++;
-                }
+    void batch(final RowBatch batch) {
+        for (int r = 0, size = batch.size(), columns = batch.columnCount(); r < size; r++) {
+            int rowIndex = tableModel.rowKeySet().size();
+            for (int c = 0; c < columns; c++) {
+                String value = batch.getString(c, r);
+                // guava tables do not permit null values
+                tableModel.put(rowIndex, columnNames.get(c), value == null ? "" : value);
             }
         }
     }
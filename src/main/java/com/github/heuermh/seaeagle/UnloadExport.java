@@ -0,0 +1,228 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.core.sync.ResponseTransformer;
+
+import software.amazon.awssdk.services.s3.S3Client;
+
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+/**
+ * Bulk export of query results via <code>UNLOAD</code> to Parquet files in S3.
+ */
+final class UnloadExport {
+    private final S3Client s3Client;
+    private final int threads;
+
+    private static final String UNLOAD_SQL = "UNLOAD (%s) TO '%s' WITH (format = 'PARQUET', compression = 'ZSTD')";
+
+    private static final String MERGE_SQL = "COPY (SELECT * FROM read_parquet([%s])) TO '%s' (FORMAT 'PARQUET', CODEC 'ZSTD')";
+
+    static final Logger logger = LoggerFactory.getLogger(UnloadExport.class);
+
+
+    /**
+     * Create a new unload export.
+     *
+     * @param s3Client S3 client, must not be null
+     * @param threads number of download threads, must be greater than zero
+     */
+    UnloadExport(final S3Client s3Client, final int threads) {
+        checkNotNull(s3Client);
+        checkArgument(threads > 0, "threads must be greater than zero");
+        this.s3Client = s3Client;
+        this.threads = threads;
+    }
+
+
+    /**
+     * Download all of the objects under the specified S3 prefix into the specified directory.
+     *
+     * @param prefix S3 prefix, must not be null
+     * @param directory directory to download to, must not be null
+     * @return the list of downloaded paths, in key order
+     * @throws IOException if an I/O error occurs
+     */
+    List<Path> download(final S3Location prefix, final Path directory) throws IOException {
+        checkNotNull(prefix);
+        checkNotNull(directory);
+        Files.createDirectories(directory);
+
+        List<S3Object> objects = new ArrayList<>();
+        for (S3Object object : s3Client.listObjectsV2Paginator(ListObjectsV2Request.builder()
+                                                              .bucket(prefix.bucket())
+                                                              .prefix(prefix.key())
+                                                              .build()).contents()) {
+            objects.add(object);
+        }
+        logger.info("Downloading {} objects from {} to {} with {} threads", objects.size(), prefix, directory, threads);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Path>> futures = new ArrayList<>(objects.size());
+            for (S3Object object : objects) {
+                String fileName = object.key().substring(object.key().lastIndexOf('/') + 1);
+                Path path = directory.resolve(fileName.endsWith(".parquet") ? fileName : fileName + ".parquet");
+                futures.add(executorService.submit(() -> {
+                            Files.deleteIfExists(path);
+                            s3Client.getObject(GetObjectRequest.builder()
+                                               .bucket(prefix.bucket())
+                                               .key(object.key())
+                                               .build(), ResponseTransformer.toFile(path));
+                            return path;
+                        }));
+            }
+            List<Path> paths = new ArrayList<>(futures.size());
+            for (Future<Path> future : futures) {
+                paths.add(future.get());
+            }
+            return paths;
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted downloading " + prefix, e);
+        }
+        finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Wrap the specified query in an <code>UNLOAD</code> statement to the specified S3 prefix.
+     *
+     * @param query query to wrap, must not be null
+     * @param prefix S3 prefix, must not be null
+     * @return the specified query wrapped in an <code>UNLOAD</code> statement
+     */
+    static String unloadQuery(final String query, final S3Location prefix) {
+        checkNotNull(query);
+        checkNotNull(prefix);
+        String trimmed = query.trim();
+        while (trimmed.endsWith(";")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1).trim();
+        }
+        return String.format(UNLOAD_SQL, trimmed, prefix.toString().replace("'", "''"));
+    }
+
+    /**
+     * Merge the specified list of Parquet files into a single Parquet file.
+     *
+     * @param paths list of Parquet files to merge, must not be null
+     * @param resultsPath merged Parquet file, must not be null
+     * @throws IOException if an I/O error occurs
+     */
+    static void merge(final List<Path> paths, final Path resultsPath) throws IOException {
+        checkNotNull(paths);
+        checkNotNull(resultsPath);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0, size = paths.size(); i < size; i++) {
+            sb.append("'");
+            sb.append(paths.get(i).toString().replace("'", "''"));
+            sb.append("'");
+            if (i < (size - 1)) {
+                sb.append(", ");
+            }
+        }
+        logger.info("Merging {} Parquet files into {}", paths.size(), resultsPath);
+
+        try {
+            Class.forName("org.duckdb.DuckDBDriver");
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        try (Connection connection = DriverManager.getConnection("jdbc:duckdb:");
+             Statement statement = connection.createStatement()) {
+            statement.execute(String.format(MERGE_SQL, sb.toString(), resultsPath.toString().replace("'", "''")));
+        }
+        catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Delete the specified directory and everything under it, if it exists.
+     *
+     * @param directory directory to delete, must not be null
+     * @throws IOException if an I/O error occurs
+     */
+    static void deleteRecursively(final Path directory) throws IOException {
+        checkNotNull(directory);
+        if (!Files.exists(directory)) {
+            return;
+        }
+        IOException failure = null;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            // children before their parents
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                try {
+                    Files.deleteIfExists(path);
+                }
+                catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
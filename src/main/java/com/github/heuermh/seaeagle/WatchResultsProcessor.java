@@ -0,0 +1,255 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import java.nio.ByteBuffer;
+
+import java.nio.charset.StandardCharsets;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+
+/**
+ * Watch results processor, hashes each page of results as it arrives and compares the results
+ * to those of the previous run of the same query.
+ *
+ * <p>
+ * The first run is passed on to another results processor in full.  On later runs, nothing is
+ * written if the results are unchanged, otherwise removed rows are written prefixed with <code>-</code>
+ * and added rows prefixed with <code>+</code>, tab delimited.  Results are compared as multisets of
+ * rows, so the same rows in a different order, e.g. from a query without <code>ORDER BY</code>, are
+ * unchanged.
+ * </p>
+ *
+ * <p>
+ * The rows of the previous run and of the current run are held in memory, as they are needed to
+ * write the rows removed and added, so watch mode suits small results.  The hash only saves comparing
+ * rows when results are unchanged, in which case the rows of the previous run are kept and those of
+ * the current run released.
+ * </p>
+ */
+final class WatchResultsProcessor extends ResultsProcessor {
+    private final Snapshot previous;
+    private final ResultsProcessor delegate;
+    private final PrintWriter writer;
+    private final boolean closeDelegate;
+    private final MessageDigest digest;
+    private final List<String> rows = new ArrayList<>();
+    private long hash0 = 0L;
+    private long hash1 = 0L;
+    private Snapshot snapshot;
+    static final Logger logger = LoggerFactory.getLogger(WatchResultsProcessor.class);
+
+
+    /**
+     * Create a new watch results processor for the first run.
+     *
+     * @param delegate results processor to pass results of the first run on to, must not be null
+     * @param closeDelegate true to close the delegate results processor when closed, false to only flush it,
+     *    e.g. when writing to stdout
+     */
+    WatchResultsProcessor(final ResultsProcessor delegate, final boolean closeDelegate) {
+        this(null, checkNotNull(delegate), null, closeDelegate);
+    }
+
+    /**
+     * Create a new watch results processor for a later run.
+     *
+     * @param previous snapshot of the previous run, must not be null
+     * @param writer writer to write changed rows to, must not be null
+     */
+    WatchResultsProcessor(final Snapshot previous, final PrintWriter writer) {
+        this(checkNotNull(previous), null, checkNotNull(writer), false);
+    }
+
+    private WatchResultsProcessor(final Snapshot previous, final ResultsProcessor delegate, final PrintWriter writer, final boolean closeDelegate) {
+        this.previous = previous;
+        this.delegate = delegate;
+        this.writer = writer;
+        this.closeDelegate = closeDelegate;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+
+    @Override
+    void columns(final List<ColumnInfo> columns) throws IOException {
+        if (delegate != null) {
+            delegate.columns(columns);
+        }
+    }
+
+    @Override
+    Object prepare(final RowBatch batch) throws IOException {
+        return delegate == null ? null : delegate.prepare(batch);
+    }
+
+    @Override
+    void batch(final RowBatch batch) throws IOException {
+        batch(batch, prepare(batch));
+    }
+
+    @Override
+    void batch(final RowBatch batch, final Object prepared) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int r = 0, size = batch.size(), columns = batch.columnCount(); r < size; r++) {
+            sb.setLength(0);
+            for (int c = 0; c < columns; c++) {
+                if (c > 0) {
+                    sb.append('\t');
+                }
+                ResultCache.escape(sb, batch.getString(c, r));
+            }
+            String line = sb.toString();
+
+            // sum of row hashes, independent of row order
+            ByteBuffer rowHash = ByteBuffer.wrap(digest.digest(line.getBytes(StandardCharsets.UTF_8)));
+            hash0 += rowHash.getLong();
+            hash1 += rowHash.getLong();
+            rows.add(line);
+        }
+        if (delegate != null) {
+            delegate.batch(batch, prepared);
+        }
+    }
+
+    @Override
+    boolean isDone() {
+        return delegate != null && delegate.isDone();
+    }
+
+    @Override
+    void complete() throws IOException {
+        byte[] hash = ByteBuffer.allocate(24).putLong(hash0).putLong(hash1).putLong(rows.size()).array();
+        if (delegate != null) {
+            snapshot = new Snapshot(hash, rows);
+            delegate.complete();
+            delegate.flush();
+            return;
+        }
+        if (Arrays.equals(previous.digest, hash)) {
+            logger.info("Results unchanged, {} rows", rows.size());
+            snapshot = previous;
+            rows.clear();
+            return;
+        }
+        snapshot = new Snapshot(hash, rows);
+
+        // multiset difference, preserving row order
+        Map<String, Integer> counts = new HashMap<>();
+        for (String row : rows) {
+            counts.merge(row, 1, Integer::sum);
+        }
+        List<String> removed = new ArrayList<>();
+        for (String row : previous.rows) {
+            if (counts.getOrDefault(row, 0) > 0) {
+                counts.merge(row, -1, Integer::sum);
+            }
+            else {
+                removed.add(row);
+            }
+        }
+        counts.clear();
+        for (String row : previous.rows) {
+            counts.merge(row, 1, Integer::sum);
+        }
+        List<String> added = new ArrayList<>();
+        for (String row : rows) {
+            if (counts.getOrDefault(row, 0) > 0) {
+                counts.merge(row, -1, Integer::sum);
+            }
+            else {
+                added.add(row);
+            }
+        }
+        if (removed.isEmpty() && added.isEmpty()) {
+            logger.info("Results unchanged, {} rows", rows.size());
+            return;
+        }
+        logger.info("Results changed, {} rows removed, {} rows added", removed.size(), added.size());
+        for (String row : removed) {
+            writer.println("-\t" + unescape(row));
+        }
+        for (String row : added) {
+            writer.println("+\t" + unescape(row));
+        }
+        writer.flush();
+        if (writer.checkError()) {
+            throw new IOException("could not write changed rows");
+        }
+    }
+
+    @Override
+    public void close() {
+        if (delegate != null && closeDelegate) {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Return a snapshot of the results of this run, once complete.
+     *
+     * @return a snapshot of the results of this run, or <code>null</code> if not complete
+     */
+    Snapshot snapshot() {
+        return snapshot;
+    }
+
+    private static String unescape(final String row) {
+        StringBuilder sb = new StringBuilder(row.length());
+        for (Iterator<String> it = ResultCache.split(row).iterator(); it.hasNext(); ) {
+            sb.append(it.next());
+            if (it.hasNext()) {
+                sb.append("\t");
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Snapshot of the results of a run, order-independent hash and escaped rows.
+     */
+    static final class Snapshot {
+        private final byte[] digest;
+        private final List<String> rows;
+
+        Snapshot(final byte[] digest, final List<String> rows) {
+            this.digest = digest;
+            this.rows = rows;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+import java.nio.charset.StandardCharsets;
+
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import java.nio.file.attribute.PosixFilePermissions;
+
+import java.time.Instant;
+
+import java.util.Properties;
+
+/**
+ * Watermark of an incremental query, the greatest value of a monotonic column seen so far,
+ * written to a state file between runs.
+ */
+final class Watermark {
+    private final String column;
+    private final String value;
+    private final Instant updated;
+
+
+    /**
+     * Create a new watermark.
+     *
+     * @param column watermark column, must not be null
+     * @param value watermark value, as an SQL literal, must not be null
+     * @param updated time this watermark was advanced, must not be null
+     */
+    Watermark(final String column, final String value, final Instant updated) {
+        checkNotNull(column);
+        checkNotNull(value);
+        checkNotNull(updated);
+        this.column = column;
+        this.value = value;
+        this.updated = updated;
+    }
+
+
+    String column() {
+        return column;
+    }
+
+    String value() {
+        return value;
+    }
+
+    Instant updated() {
+        return updated;
+    }
+
+    /**
+     * Write this watermark to the specified path, replacing any previous watermark atomically.
+     *
+     * @param path path to write to, must not be null
+     * @throws IOException if an I/O error occurs
+     */
+    void write(final Path path) throws IOException {
+        checkNotNull(path);
+        Properties properties = new Properties();
+        properties.setProperty("column", column);
+        properties.setProperty("value", value);
+        properties.setProperty("updated", updated.toString());
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (!Files.isDirectory(parent)) {
+            Files.createDirectories(parent, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            properties.store(writer, "se watermark");
+        }
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Read a watermark from the specified path, if any.
+     *
+     * @param path path to read from, must not be null
+     * @return a watermark read from the specified path, or <code>null</code> if none exists
+     * @throws IOException if an I/O error occurs
+     */
+    static Watermark read(final Path path) throws IOException {
+        checkNotNull(path);
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+        String column = properties.getProperty("column");
+        String value = properties.getProperty("value");
+        String updated = properties.getProperty("updated");
+        if (column == null || value == null || updated == null) {
+            throw new IOException("invalid watermark " + path);
+        }
+        return new Watermark(column, value, Instant.parse(updated));
+    }
+}
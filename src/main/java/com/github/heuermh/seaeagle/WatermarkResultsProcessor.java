@@ -0,0 +1,199 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+
+import java.math.BigDecimal;
+
+import java.util.List;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+
+/**
+ * Watermark results processor, tracks the greatest value of a monotonic column while passing
+ * results on to another results processor.
+ */
+final class WatermarkResultsProcessor extends ResultsProcessor {
+    private final String column;
+    private final ResultsProcessor delegate;
+    private int index = -1;
+    private String type;
+    private boolean numeric;
+    private String maximum;
+    private long longMaximum;
+    private BigDecimal numericMaximum;
+
+
+    /**
+     * Create a new watermark results processor.
+     *
+     * @param column watermark column, must not be null
+     * @param delegate results processor to delegate to, must not be null
+     */
+    WatermarkResultsProcessor(final String column, final ResultsProcessor delegate) {
+        checkNotNull(column);
+        checkNotNull(delegate);
+        this.column = column;
+        this.delegate = delegate;
+    }
+
+
+    @Override
+    void columns(final List<ColumnInfo> columns) throws IOException {
+        if (index < 0) {
+            for (int i = 0, size = columns.size(); i < size; i++) {
+                if (column.equalsIgnoreCase(columns.get(i).name())) {
+                    index = i;
+                    type = ColumnType.of(columns.get(i)).name();
+                    numeric = isNumeric(type);
+                    break;
+                }
+            }
+            if (index < 0) {
+                throw new IOException("watermark column " + column + " not found in query results");
+            }
+        }
+        delegate.columns(columns);
+    }
+
+    @Override
+    Object prepare(final RowBatch batch) throws IOException {
+        return delegate.prepare(batch);
+    }
+
+    @Override
+    void batch(final RowBatch batch) throws IOException {
+        batch(batch, prepare(batch));
+    }
+
+    @Override
+    void batch(final RowBatch batch, final Object prepared) throws IOException {
+        if (index >= 0 && index < batch.columnCount()) {
+            ColumnType.Kind kind = batch.kind(index);
+            for (int r = 0, size = batch.size(); r < size; r++) {
+                if (batch.isNull(index, r)) {
+                    continue;
+                }
+                if (kind == ColumnType.Kind.LONG) {
+                    long value = batch.getLong(index, r);
+                    if (maximum == null || value > longMaximum) {
+                        longMaximum = value;
+                        maximum = batch.getString(index, r);
+                    }
+                }
+                else if (numeric) {
+                    try {
+                        BigDecimal number = new BigDecimal(batch.getString(index, r));
+                        if (numericMaximum == null || number.compareTo(numericMaximum) > 0) {
+                            numericMaximum = number;
+                            maximum = batch.getString(index, r);
+                        }
+                    }
+                    catch (NumberFormatException e) {
+                        // skip, e.g. NaN or Infinity
+                    }
+                }
+                else {
+                    String value = batch.getString(index, r);
+                    if (maximum == null || value.compareTo(maximum) > 0) {
+                        maximum = value;
+                    }
+                }
+            }
+        }
+        delegate.batch(batch, prepared);
+    }
+
+    @Override
+    boolean isDone() {
+        return delegate.isDone();
+    }
+
+    @Override
+    void flush() throws IOException {
+        delegate.flush();
+    }
+
+    @Override
+    void complete() throws IOException {
+        delegate.complete();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    /**
+     * Return the greatest value of the watermark column seen so far as an SQL literal, if any.
+     *
+     * @return the greatest value of the watermark column seen so far as an SQL literal, or <code>null</code>
+     *    if no values have been seen
+     */
+    String maximum() {
+        return maximum == null ? null : literal(type, maximum);
+    }
+
+    /**
+     * Return true if the specified type name, without parameters, is numeric.  Matches exact type
+     * names, so that e.g. <code>interval</code> is not mistaken for <code>int</code>.
+     *
+     * @param type type name, without parameters
+     * @return true if the specified type name is numeric
+     */
+    static boolean isNumeric(final String type) {
+        switch (type) {
+            case "tinyint":
+            case "smallint":
+            case "integer":
+            case "int":
+            case "bigint":
+            case "real":
+            case "float":
+            case "double":
+            case "decimal":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Return the specified value of the specified type as an SQL literal, suitable for an execution parameter.
+     *
+     * @param type Athena column type, must not be null
+     * @param value value, must not be null
+     * @return the specified value of the specified type as an SQL literal
+     */
+    static String literal(final String type, final String value) {
+        checkNotNull(type);
+        checkNotNull(value);
+        if (isNumeric(type)) {
+            return value;
+        }
+        String quoted = "'" + value.replace("'", "''") + "'";
+        if (type.startsWith("date")) {
+            return "DATE " + quoted;
+        }
+        if (type.startsWith("timestamp")) {
+            return "TIMESTAMP " + quoted;
+        }
+        return quoted;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+
+/**
+ * Benchmark-style test for AthenaCsvParser, reporting records per second per parser thread
+ * over a generated Athena CSV result file.
+ *
+ * <p>
+ * The number of records defaults to 200,000, and may be set with the <code>benchmark.rows</code>
+ * system property, e.g. <code>mvn test -Dtest=AthenaCsvParserBenchmarkTest -Dbenchmark.rows=5000000</code>.
+ * </p>
+ */
+public final class AthenaCsvParserBenchmarkTest {
+
+    /** Number of records to generate. */
+    static final int ROWS = Integer.getInteger("benchmark.rows", 200000);
+
+    /** Number of timed iterations per thread count, the best is reported. */
+    static final int ITERATIONS = 3;
+
+
+    @Test
+    public void benchmarkParse() throws IOException {
+        List<ColumnInfo> columns = columns();
+        String csv = generate(ROWS);
+
+        for (int threads : threadCounts()) {
+            // warm up
+            assertEquals(ROWS, parse(csv, columns, threads));
+
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = System.nanoTime();
+                assertEquals(ROWS, parse(csv, columns, threads));
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            double recordsPerSecond = ROWS / (best / 1000000000.0d);
+            System.out.println(String.format("AthenaCsvParser %d records, parser threads %d: %.0f records/s, %.0f records/s per thread",
+                                             ROWS, threads, recordsPerSecond, recordsPerSecond / threads));
+        }
+    }
+
+    private static long parse(final String csv, final List<ColumnInfo> columns, final int threads) throws IOException {
+        Counting counting = new Counting();
+        new AthenaCsvParser(AthenaCsvParser.DEFAULT_BATCH_SIZE, threads, AthenaCsvParser.DEFAULT_CHUNK_SIZE)
+            .parse(new StringReader(csv), columns, counting);
+        return counting.rows;
+    }
+
+    private static List<Integer> threadCounts() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        TreeSet<Integer> threadCounts = new TreeSet<>();
+        for (int threads = 1; threads < processors; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(processors);
+        return new ArrayList<>(threadCounts);
+    }
+
+    private static List<ColumnInfo> columns() {
+        return Arrays.asList(ColumnInfo.builder().name("id").type("bigint").build(),
+                             ColumnInfo.builder().name("name").type("varchar").build(),
+                             ColumnInfo.builder().name("score").type("double").build(),
+                             ColumnInfo.builder().name("active").type("boolean").build(),
+                             ColumnInfo.builder().name("note").type("varchar").build());
+    }
+
+    /**
+     * Generate an Athena CSV result file with a header row, quoted values, embedded delimiters,
+     * doubled quotes, newlines, and null values.
+     */
+    private static String generate(final int rows) {
+        StringBuilder sb = new StringBuilder(rows * 64);
+        sb.append("\"id\",\"name\",\"score\",\"active\",\"note\"\n");
+        for (int i = 0; i < rows; i++) {
+            sb.append('"').append(i).append("\",");
+            sb.append("\"name ").append(i % 1000).append("\",");
+            sb.append('"').append(i * 0.5d).append("\",");
+            sb.append('"').append(i % 2 == 0).append("\",");
+            switch (i % 4) {
+                case 0:
+                    sb.append("\"plain\"");
+                    break;
+                case 1:
+                    sb.append("\"with, delimiter and \"\"quotes\"\"\"");
+                    break;
+                case 2:
+                    sb.append("\"multi\nline\"");
+                    break;
+                default:
+                    // null
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Results processor that counts rows.
+     */
+    private static final class Counting extends ResultsProcessor {
+        private long rows = 0L;
+
+        @Override
+        void batch(final RowBatch batch) {
+            rows += batch.size();
+        }
+    }
+}
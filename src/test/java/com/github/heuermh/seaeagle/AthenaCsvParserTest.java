@@ -0,0 +1,131 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+import software.amazon.awssdk.services.athena.model.Datum;
+import software.amazon.awssdk.services.athena.model.Row;
+
+/**
+ * Unit test for AthenaCsvParser.
+ */
+public final class AthenaCsvParserTest {
+
+    @Test
+    public void testParseChunkQuoted() {
+        List<Row> rows = parseChunk("\"foo\",\"bar\"\n");
+        assertEquals(1, rows.size());
+        assertEquals(Arrays.asList("foo", "bar"), values(rows.get(0)));
+    }
+
+    @Test
+    public void testParseChunkUnquoted() {
+        List<Row> rows = parseChunk("foo,1.5,true\n");
+        assertEquals(1, rows.size());
+        assertEquals(Arrays.asList("foo", "1.5", "true"), values(rows.get(0)));
+    }
+
+    @Test
+    public void testParseChunkEmpty() {
+        List<Row> rows = parseChunk("\"foo\",,\"\"\n");
+        assertEquals(1, rows.size());
+        List<String> values = values(rows.get(0));
+        assertEquals("foo", values.get(0));
+        assertNull(values.get(1));
+        assertEquals("", values.get(2));
+    }
+
+    @Test
+    public void testParseChunkTrailingEmpty() {
+        List<Row> rows = parseChunk("foo,\n");
+        assertEquals(Arrays.asList("foo", null), values(rows.get(0)));
+    }
+
+    @Test
+    public void testParseChunkDoubledQuote() {
+        List<Row> rows = parseChunk("\"say \"\"hello\"\"\",\"\"\"\"\n");
+        assertEquals(Arrays.asList("say \"hello\"", "\""), values(rows.get(0)));
+    }
+
+    @Test
+    public void testParseChunkMultiLine() {
+        List<Row> rows = parseChunk("\"foo\nbar\",\"a,b\"\r\n\"baz\",qux\n");
+        assertEquals(2, rows.size());
+        assertEquals(Arrays.asList("foo\nbar", "a,b"), values(rows.get(0)));
+        assertEquals(Arrays.asList("baz", "qux"), values(rows.get(1)));
+    }
+
+    @Test
+    public void testParseChunkWithoutFinalNewline() {
+        List<Row> rows = parseChunk("foo,bar\nbaz,qux");
+        assertEquals(2, rows.size());
+        assertEquals(Arrays.asList("baz", "qux"), values(rows.get(1)));
+    }
+
+    @Test
+    public void testParseChunksInOrder() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("\"").append(i).append("\n\"\",\"\"\",").append(i).append(",\n");
+        }
+        List<ColumnInfo> columns = Arrays.asList(ColumnInfo.builder().name("a").type("varchar").build(),
+                                                 ColumnInfo.builder().name("b").type("varchar").build(),
+                                                 ColumnInfo.builder().name("c").type("varchar").build());
+        List<String[]> rows = new ArrayList<>();
+        ResultsProcessor processor = new ResultsProcessor() {
+                @Override
+                void batch(final RowBatch batch) {
+                    for (int row = 0; row < batch.size(); row++) {
+                        rows.add(new String[] { batch.getString(0, row), batch.getString(1, row), batch.getString(2, row) });
+                    }
+                }
+            };
+
+        // small chunks, so records and quoted values are split across reads and parsed concurrently
+        assertEquals(1000L, new AthenaCsvParser(7, 4, 16).parse(new StringReader(sb.toString()), columns, processor));
+        assertEquals(1000, rows.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i + "\n\",\"", rows.get(i)[0]);
+            assertEquals(String.valueOf(i), rows.get(i)[1]);
+            assertNull(rows.get(i)[2]);
+        }
+    }
+
+
+    private static List<Row> parseChunk(final String chunk) {
+        return AthenaCsvParser.parseChunk(chunk.toCharArray(), chunk.length());
+    }
+
+    private static List<String> values(final Row row) {
+        List<String> values = new ArrayList<>(row.data().size());
+        for (Datum datum : row.data()) {
+            values.add(datum.varCharValue());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import java.util.function.Function;
+
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+import software.amazon.awssdk.services.athena.model.Datum;
+import software.amazon.awssdk.services.athena.model.GetQueryResultsResponse;
+import software.amazon.awssdk.services.athena.model.ResultSet;
+import software.amazon.awssdk.services.athena.model.ResultSetMetadata;
+import software.amazon.awssdk.services.athena.model.Row;
+
+/**
+ * Unit test for FormattingPipeline, output with several format threads is byte-for-byte
+ * the same as with one.
+ */
+public final class FormattingPipelineTest {
+    private Path directory;
+    private List<GetQueryResultsResponse> pages;
+
+    private static final int PAGES = 40;
+    private static final int ROWS_PER_PAGE = 100;
+    private static final int[] THREADS = { 2, 4, 8 };
+
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("formatting-pipeline-test");
+        pages = pages(new Random(42L));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+
+    @Test
+    public void testTabDelimited() throws IOException {
+        assertSameOutput("results.txt", TabDelimitedFormat::new);
+    }
+
+    @Test
+    public void testTabDelimitedWithHeader() throws IOException {
+        assertSameOutput("results.txt", TabDelimitedWithHeaderFormat::new);
+    }
+
+    @Test
+    public void testTabDelimitedCompressed() throws IOException {
+        assertSameOutput("results.txt.gz", TabDelimitedFormat::new);
+    }
+
+    @Test
+    public void testPrettyTable() throws IOException {
+        assertSameOutput("results.txt", resultsPath -> new PrettyTableWithHeaderFormat(resultsPath, 2));
+    }
+
+    @Test
+    public void testSparseTable() throws IOException {
+        assertSameOutput("results.txt", resultsPath -> new SparseTableFormat(resultsPath, 2));
+    }
+
+
+    private void assertSameOutput(final String fileName, final Function<Path, ResultsProcessor> format) throws IOException {
+        // --format-threads 1
+        Path expected = directory.resolve("1-" + fileName);
+        try (ResultsProcessor processor = format.apply(expected)) {
+            SeaEagle.processResults(pages, processor);
+            processor.complete();
+        }
+        byte[] expectedBytes = Files.readAllBytes(expected);
+        assertTrue(expectedBytes.length > 0);
+
+        for (int threads : THREADS) {
+            Path actual = directory.resolve(threads + "-" + fileName);
+            try (ResultsProcessor processor = format.apply(actual)) {
+                long count = new FormattingPipeline(threads).process(pages, (result, firstPage) -> RowBatch.of(result.resultSet().resultSetMetadata().columnInfo(),
+                                                                                                               result.resultSet().rows(), firstPage), processor);
+                assertEquals((long) PAGES * ROWS_PER_PAGE, count);
+                processor.complete();
+            }
+            assertArrayEquals("output with " + threads + " format threads differs", expectedBytes, Files.readAllBytes(actual));
+        }
+    }
+
+    private static List<GetQueryResultsResponse> pages(final Random random) {
+        List<ColumnInfo> columns = Arrays.asList(column("name", "varchar"), column("count", "bigint"), column("score", "double"));
+        List<GetQueryResultsResponse> pages = new ArrayList<>(PAGES);
+        for (int p = 0; p < PAGES; p++) {
+            List<Row> rows = new ArrayList<>(ROWS_PER_PAGE + 1);
+            if (p == 0) {
+                // the first page of results starts with a row of column names
+                rows.add(row("name", "count", "score"));
+            }
+            for (int r = 0; r < ROWS_PER_PAGE; r++) {
+                rows.add(row("name-" + random.nextInt(1 << (random.nextInt(20) + 1)),
+                             random.nextInt(10) == 0 ? null : String.valueOf(random.nextLong()),
+                             random.nextInt(10) == 0 ? null : String.valueOf(random.nextDouble())));
+            }
+            pages.add(GetQueryResultsResponse.builder()
+                      .resultSet(ResultSet.builder()
+                                 .rows(rows)
+                                 .resultSetMetadata(ResultSetMetadata.builder().columnInfo(columns).build())
+                                 .build())
+                      .nextToken(p < PAGES - 1 ? "token-" + p : null)
+                      .build());
+        }
+        return pages;
+    }
+
+    private static ColumnInfo column(final String name, final String type) {
+        return ColumnInfo.builder().name(name).label(name).type(type).build();
+    }
+
+    private static Row row(final String... values) {
+        List<Datum> data = new ArrayList<>(values.length);
+        for (String value : values) {
+            data.add(value == null ? Datum.builder().build() : Datum.builder().varCharValue(value).build());
+        }
+        return Row.builder().data(data).build();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * The authors of this file license it to you under the
+ * Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You
+ * may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.heuermh.seaeagle;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import software.amazon.awssdk.services.athena.model.ColumnInfo;
+import software.amazon.awssdk.services.athena.model.Datum;
+import software.amazon.awssdk.services.athena.model.Row;
+
+/**
+ * Benchmark-style test for RowBatch, reporting the per-row cost of materializing and formatting
+ * pages of results as tab delimited text, with and without a typed read of a bigint column.
+ * Each path starts from the same decoded string values:
+ * <ul>
+ * <li>rows, building a <code>Row</code> and a <code>Datum</code> for every value, as the AWS SDK does, and formatting
+ *     <code>List&lt;Row&gt;</code> directly, as results processors did before <code>RowBatch</code></li>
+ * <li>batch from rows, building rows as above, then <code>RowBatch.of</code> from a <code>List&lt;Row&gt;</code>,
+ *     as in paginated retrieval mode</li>
+ * <li>batch from columns, <code>RowBatch.of</code> from column buffers of strings, as in stream retrieval mode</li>
+ * </ul>
+ *
+ * <p>
+ * The number of rows defaults to 200,000, and may be set with the <code>benchmark.rows</code>
+ * system property, e.g. <code>mvn test -Dtest=RowBatchBenchmarkTest -Dbenchmark.rows=5000000</code>.
+ * </p>
+ */
+public final class RowBatchBenchmarkTest {
+
+    /** Number of rows to generate. */
+    static final int ROWS = Integer.getInteger("benchmark.rows", 200000);
+
+    /** Rows per page, matching the maximum page size of the Athena results API. */
+    static final int PAGE_SIZE = 1000;
+
+    /** Number of timed iterations per path, the best is reported. */
+    static final int ITERATIONS = 5;
+
+
+    @Test
+    public void benchmarkFormat() {
+        List<ColumnInfo> columns = columns();
+        List<String[][]> pages = pages(ROWS, columns.size());
+        TabDelimitedFormat format = new TabDelimitedFormat(null);
+
+        for (boolean typed : new boolean[] { false, true }) {
+            long expected = formatRows(rows(pages), typed);
+            report("rows", typed, time(() -> formatRows(rows(pages), typed), expected));
+            report("batch from rows", typed, time(() -> formatBatchesFromRows(rows(pages), columns, format, typed), expected));
+            report("batch from columns", typed, time(() -> formatBatchesFromColumns(pages, columns, format, typed), expected));
+        }
+    }
+
+    /**
+     * Format pages of rows directly, returning a checksum of the output length and the maximum bigint value.
+     */
+    private static long formatRows(final List<List<Row>> pages, final boolean typed) {
+        long length = 0L;
+        long max = Long.MIN_VALUE;
+        for (List<Row> page : pages) {
+            StringBuilder sb = new StringBuilder();
+            for (Row row : page) {
+                for (Iterator<Datum> it = row.data().iterator(); it.hasNext(); ) {
+                    sb.append(it.next().varCharValue());
+                    if (it.hasNext()) {
+                        sb.append("\t");
+                    }
+                }
+                sb.append(System.lineSeparator());
+                if (typed) {
+                    max = Math.max(max, Long.parseLong(row.data().get(0).varCharValue()));
+                }
+            }
+            length += sb.length();
+        }
+        return length + max;
+    }
+
+    private static long formatBatchesFromRows(final List<List<Row>> pages,
+                                              final List<ColumnInfo> columns,
+                                              final TabDelimitedFormat format,
+                                              final boolean typed) {
+        List<RowBatch> batches = new ArrayList<>(pages.size());
+        for (List<Row> page : pages) {
+            batches.add(RowBatch.of(columns, page, false));
+        }
+        return format(batches, format, typed);
+    }
+
+    private static long formatBatchesFromColumns(final List<String[][]> pages,
+                                                 final List<ColumnInfo> columns,
+                                                 final TabDelimitedFormat format,
+                                                 final boolean typed) {
+        List<RowBatch> batches = new ArrayList<>(pages.size());
+        for (String[][] page : pages) {
+            batches.add(RowBatch.of(columns, page, page[0].length, false));
+        }
+        return format(batches, format, typed);
+    }
+
+    private static long format(final List<RowBatch> batches, final TabDelimitedFormat format, final boolean typed) {
+        long length = 0L;
+        long max = Long.MIN_VALUE;
+        for (RowBatch batch : batches) {
+            length += ((String) format.prepare(batch)).length();
+            if (typed) {
+                for (int r = 0, size = batch.size(); r < size; r++) {
+                    max = Math.max(max, batch.getLong(0, r));
+                }
+            }
+        }
+        return length + max;
+    }
+
+    private static long time(final Benchmarked path, final long expected) {
+        // warm up
+        assertEquals(expected, path.run());
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            assertEquals(expected, path.run());
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void report(final String path, final boolean typed, final long elapsed) {
+        System.out.println(String.format("RowBatch %d rows, %s%s: %.1f ns/row",
+                                         ROWS, path, typed ? " with typed read" : "", elapsed / (double) ROWS));
+    }
+
+    private static List<ColumnInfo> columns() {
+        return Arrays.asList(ColumnInfo.builder().name("id").type("bigint").build(),
+                             ColumnInfo.builder().name("name").type("varchar").build(),
+                             ColumnInfo.builder().name("score").type("double").build(),
+                             ColumnInfo.builder().name("active").type("boolean").build(),
+                             ColumnInfo.builder().name("note").type("varchar").build());
+    }
+
+    /**
+     * Return pages of decoded string values, as column buffers.
+     */
+    private static List<String[][]> pages(final int rows, final int columnCount) {
+        List<String[][]> pages = new ArrayList<>();
+        for (int offset = 0; offset < rows; offset += PAGE_SIZE) {
+            int size = Math.min(PAGE_SIZE, rows - offset);
+            String[][] values = new String[columnCount][size];
+            for (int r = 0; r < size; r++) {
+                int i = offset + r;
+                values[0][r] = String.valueOf(i);
+                values[1][r] = "name " + (i % 1000);
+                values[2][r] = String.valueOf(i * 0.5d);
+                values[3][r] = String.valueOf(i % 2 == 0);
+                values[4][r] = (i % 4 == 3) ? null : "note " + i;
+            }
+            pages.add(values);
+        }
+        return pages;
+    }
+
+    /**
+     * Build a <code>Row</code> and a <code>Datum</code> for every value in the specified pages.
+     */
+    private static List<List<Row>> rows(final List<String[][]> pages) {
+        List<List<Row>> rows = new ArrayList<>(pages.size());
+        for (String[][] values : pages) {
+            List<Row> page = new ArrayList<>(values[0].length);
+            for (int r = 0, size = values[0].length; r < size; r++) {
+                List<Datum> data = new ArrayList<>(values.length);
+                for (int c = 0; c < values.length; c++) {
+                    data.add(Datum.builder().varCharValue(values[c][r]).build());
+                }
+                page.add(Row.builder().data(data).build());
+            }
+            rows.add(page);
+        }
+        return rows;
+    }
+
+    /**
+     * Benchmarked path, returning a checksum.
+     */
+    private interface Benchmarked {
+        long run();
+    }
+}